@@ -0,0 +1,71 @@
+package com.paypeek.backend.batch;
+
+import com.paypeek.backend.model.Payslip;
+import com.paypeek.backend.util.PayslipPeriod;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Backfill di year/month sulle Payslip salvate prima dei campi normalizzati. Ogni esecuzione elabora una
+ * pagina (ordinata per _id) e restituisce CONTINUABLE finché ne restano: l'ultimo _id è nell'ExecutionContext,
+ * quindi un job interrotto riparte dalla pagina successiva. I periodi non riconosciuti vengono salvati a null
+ * per non essere riletti.
+ */
+@Component
+public class PayslipPeriodBackfillTasklet implements Tasklet {
+
+    private static final String LAST_ID = "lastId";
+
+    private final MongoTemplate mongoTemplate;
+    private final int pageSize;
+
+    public PayslipPeriodBackfillTasklet(MongoTemplate mongoTemplate,
+                                        @Value("${app.migration.payslip-period.page-size:500}") int pageSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        ExecutionContext context = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+
+        Query page = query(where("year").exists(false));
+        if (context.containsKey(LAST_ID)) {
+            page.addCriteria(where("_id").gt(context.getString(LAST_ID)));
+        }
+        page.with(Sort.by(Sort.Direction.ASC, "_id")).limit(pageSize);
+        page.fields().include("extractedData");
+
+        List<Payslip> payslips = mongoTemplate.find(page, Payslip.class);
+        if (payslips.isEmpty()) {
+            return RepeatStatus.FINISHED;
+        }
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Payslip.class);
+        for (Payslip payslip : payslips) {
+            bulk.updateOne(query(where("_id").is(payslip.getId())), new Update()
+                    .set("year", PayslipPeriod.year(payslip.getExtractedData()).orElse(null))
+                    .set("month", PayslipPeriod.month(payslip.getExtractedData()).orElse(null)));
+        }
+        bulk.execute();
+
+        contribution.incrementWriteCount(payslips.size());
+        context.putString(LAST_ID, payslips.get(payslips.size() - 1).getId());
+        return payslips.size() < pageSize ? RepeatStatus.FINISHED : RepeatStatus.CONTINUABLE;
+    }
+}
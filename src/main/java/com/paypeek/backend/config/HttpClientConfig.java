@@ -0,0 +1,97 @@
+package com.paypeek.backend.config;
+
+import com.paypeek.backend.util.AbortableCall;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.time.Duration;
+
+/**
+ * Client HTTP condiviso verso i servizi AI (estrattore, LightRAG): connessioni in pool con keep-alive,
+ * limiti per route e body in streaming. Le metriche del pool finiscono su httpcomponents.httpclient.pool.*
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager aiConnectionManager(
+            @Value("${app.http.max-connections:50}") int maxConnections,
+            @Value("${app.http.max-connections-per-route:10}") int maxConnectionsPerRoute,
+            @Value("${app.http.connect-timeout-seconds:5}") long connectTimeoutSeconds,
+            @Value("${app.http.read-timeout-seconds:300}") long readTimeoutSeconds) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(connectTimeoutSeconds))
+                        .setSocketTimeout(Timeout.ofSeconds(readTimeoutSeconds))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient aiHttpClient(
+            PoolingHttpClientConnectionManager aiConnectionManager,
+            @Value("${app.http.pool-wait-seconds:30}") long poolWaitSeconds) {
+        return HttpClients.custom()
+                .setConnectionManager(aiConnectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // Attesa massima per una connessione libera quando il pool è saturo
+                        .setConnectionRequestTimeout(Timeout.ofSeconds(poolWaitSeconds))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+    }
+
+    @Bean
+    @Primary
+    public HttpComponentsClientHttpRequestFactory aiRequestFactory(CloseableHttpClient aiHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(aiHttpClient) {
+            @Override
+            protected void postProcessHttpRequest(ClassicHttpRequest request) {
+                // Rende la richiesta interrompibile da AbortableCall (es. la chiamata perdente dell'hedging)
+                if (request instanceof Cancellable cancellable) {
+                    AbortableCall.register(cancellable);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stesso pool, ma con un timeout di risposta più breve: l'indicizzazione non è interattiva e una chiamata
+     * bloccata non deve superare il lease dell'outbox (vedi LightRagOutboxService).
+     */
+    @Bean
+    public HttpComponentsClientHttpRequestFactory lightRagRequestFactory(
+            CloseableHttpClient aiHttpClient,
+            @Value("${app.lightrag.read-timeout-seconds:60}") long readTimeoutSeconds) {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(aiHttpClient);
+        factory.setReadTimeout(Duration.ofSeconds(readTimeoutSeconds));
+        return factory;
+    }
+
+    @Bean
+    public MeterBinder aiConnectionPoolMetrics(PoolingHttpClientConnectionManager aiConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(aiConnectionManager, "ai-services");
+    }
+}
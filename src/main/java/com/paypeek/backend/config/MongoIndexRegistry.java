@@ -0,0 +1,245 @@
+package com.paypeek.backend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Registro degli indici MongoDB. Gli indici sono dichiarati sulle entità ({@code @Indexed}, {@code @CompoundIndex}):
+ * con auto-index-creation disattivato è questo componente a crearli all'avvio e a verificarli.
+ * <ul>
+ *   <li>indici dichiarati e assenti vengono creati; se la creazione fallisce restano "mancanti" e con
+ *       {@code fail-on-missing} l'applicazione non parte;</li>
+ *   <li>un indice unico nuovo che non si può creare perché la collection contiene duplicati non blocca l'avvio:
+ *       viene registrato nel log (errore, con i gruppi duplicati e la query per trovarli) e nella metrica
+ *       {@code paypeek.mongo.indexes.blocked}, e sarà creato al primo avvio dopo la pulizia dei dati;</li>
+ *   <li>indici presenti ma non dichiarati vengono segnalati nel log;</li>
+ *   <li>periodicamente {@code $indexStats} segnala gli indici mai usati da almeno {@code unused-min-age-hours}.</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class MongoIndexRegistry {
+
+    private static final String ID_INDEX = "_id_";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean create;
+    private final boolean failOnMissing;
+    private final Duration unusedMinAge;
+    private final AtomicInteger missing = new AtomicInteger();
+    private final AtomicInteger blocked = new AtomicInteger();
+    private final AtomicInteger unused = new AtomicInteger();
+
+    public MongoIndexRegistry(MongoTemplate mongoTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.mongo.indexes.create:true}") boolean create,
+                              @Value("${app.mongo.indexes.fail-on-missing:false}") boolean failOnMissing,
+                              @Value("${app.mongo.indexes.unused-min-age-hours:168}") long unusedMinAgeHours) {
+        this.mongoTemplate = mongoTemplate;
+        this.create = create;
+        this.failOnMissing = failOnMissing;
+        this.unusedMinAge = Duration.ofHours(unusedMinAgeHours);
+
+        meterRegistry.gauge("paypeek.mongo.indexes.missing", missing);
+        meterRegistry.gauge("paypeek.mongo.indexes.blocked", blocked);
+        meterRegistry.gauge("paypeek.mongo.indexes.unused", unused);
+    }
+
+    @PostConstruct
+    public void bootstrap() {
+        bootstrap(documentEntities());
+    }
+
+    /**
+     * Crea e verifica gli indici dichiarati sulle entità indicate. Restituisce gli indici mancanti
+     * ("collection.nome"), dopo aver lanciato eccezione se {@code fail-on-missing} è attivo.
+     */
+    public List<String> bootstrap(Collection<Class<?>> entities) {
+        IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+        List<String> missingIndexes = new ArrayList<>();
+        List<String> blockedIndexes = new ArrayList<>();
+
+        for (Class<?> entity : entities) {
+            String collection = mongoTemplate.getCollectionName(entity);
+            IndexOperations indexOps = mongoTemplate.indexOps(entity);
+            List<IndexInfo> existing = indexOps.getIndexInfo();
+            List<IndexDefinition> declared = new ArrayList<>();
+            resolver.resolveIndexFor(entity).forEach(declared::add);
+
+            for (IndexDefinition index : declared) {
+                String name = nameOf(index);
+                IndexInfo present = existing.stream().filter(info -> sameKeys(info, index)).findFirst().orElse(null);
+                if (present != null) {
+                    if (present.isUnique() != isUnique(index)) {
+                        // Non correggibile senza drop: va sistemato a mano
+                        log.error("Indice {}.{} presente come {} con unique={}, dichiarato unique={}",
+                                collection, name, present.getName(), present.isUnique(), isUnique(index));
+                        missingIndexes.add(collection + "." + name);
+                    }
+                    continue;
+                }
+                if (create && tryCreate(indexOps, collection, name, index)) continue;
+                if (create && isUnique(index) && reportDuplicates(collection, name, index)) {
+                    blockedIndexes.add(collection + "." + name);
+                    continue;
+                }
+                missingIndexes.add(collection + "." + name);
+            }
+
+            existing.stream()
+                    .filter(info -> !ID_INDEX.equals(info.getName()))
+                    .filter(info -> declared.stream().noneMatch(index -> sameKeys(info, index)))
+                    .forEach(info -> log.warn("Indice {}.{} presente su MongoDB ma non dichiarato sull'entità {}",
+                            collection, info.getName(), entity.getSimpleName()));
+        }
+
+        blocked.set(blockedIndexes.size());
+        missing.set(missingIndexes.size());
+        if (!missingIndexes.isEmpty()) {
+            String message = "Indici MongoDB mancanti: " + missingIndexes;
+            if (failOnMissing) {
+                throw new IllegalStateException(message);
+            }
+            log.error(message);
+        }
+        return missingIndexes;
+    }
+
+    /**
+     * Report degli indici dichiarati mai usati. I contatori di $indexStats ripartono a ogni riavvio di mongod,
+     * quindi un indice è "inutilizzato" solo se ha zero accessi da almeno {@code unused-min-age-hours}.
+     */
+    @Scheduled(initialDelayString = "${app.mongo.indexes.report-initial-delay-ms:3600000}",
+            fixedDelayString = "${app.mongo.indexes.report-interval-ms:86400000}")
+    public void reportUnusedIndexes() {
+        Instant threshold = Instant.now().minus(unusedMinAge);
+        int count = 0;
+        for (Class<?> entity : documentEntities()) {
+            String collection = mongoTemplate.getCollectionName(entity);
+            try {
+                List<Document> stats = mongoTemplate.getCollection(collection)
+                        .aggregate(List.of(new Document("$indexStats", new Document())))
+                        .into(new ArrayList<>());
+                for (Document stat : stats) {
+                    String name = stat.getString("name");
+                    Document accesses = stat.get("accesses", Document.class);
+                    if (ID_INDEX.equals(name) || accesses == null) continue;
+
+                    long ops = ((Number) accesses.get("ops")).longValue();
+                    Date since = accesses.getDate("since");
+                    if (ops == 0 && since != null && since.toInstant().isBefore(threshold)) {
+                        log.warn("Indice {}.{} mai usato dal {}", collection, name, since.toInstant());
+                        count++;
+                    }
+                }
+            } catch (Exception e) {
+                // $indexStats richiede il privilegio indexStats/clusterMonitor
+                log.warn("Statistiche indici non disponibili per {}: {}", collection, e.getMessage());
+            }
+        }
+        unused.set(count);
+    }
+
+    private boolean tryCreate(IndexOperations indexOps, String collection, String name, IndexDefinition index) {
+        try {
+            indexOps.ensureIndex(index);
+            log.info("Creato indice {}.{} {}", collection, name, index.getIndexKeys().toJson());
+            return true;
+        } catch (Exception e) {
+            log.error("Creazione dell'indice {}.{} fallita: {}", collection, name, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Cerca i documenti che impediscono la creazione di un indice unico. Se ci sono duplicati li riporta nel log
+     * con le istruzioni per la pulizia e restituisce true; false se il fallimento ha un'altra causa.
+     */
+    private boolean reportDuplicates(String collection, String name, IndexDefinition index) {
+        Document keys = new Document();
+        index.getIndexKeys().keySet().forEach(key -> keys.append(key.replace('.', '_'), "$" + key));
+        List<Document> pipeline = List.of(
+                new Document("$group", new Document("_id", keys)
+                        .append("count", new Document("$sum", 1))
+                        .append("ids", new Document("$push", "$_id"))),
+                new Document("$match", new Document("count", new Document("$gt", 1))));
+
+        List<Document> duplicates;
+        try {
+            duplicates = mongoTemplate.getCollection(collection)
+                    .aggregate(pipeline)
+                    .allowDiskUse(true)
+                    .into(new ArrayList<>());
+        } catch (Exception e) {
+            log.warn("Ricerca dei duplicati per l'indice {}.{} fallita: {}", collection, name, e.getMessage());
+            return false;
+        }
+        if (duplicates.isEmpty()) {
+            return false;
+        }
+
+        String query = pipeline.stream().map(Document::toJson).collect(Collectors.joining(", ", "[", "]"));
+        log.error("Indice unico {}.{} NON creato: {} gruppi di documenti duplicati (es. {}). L'applicazione parte "
+                        + "senza l'indice e senza il vincolo di unicità. Elenco completo: db.{}.aggregate({}). "
+                        + "Unire o eliminare i duplicati e riavviare: l'indice verrà creato all'avvio successivo.",
+                collection, name, duplicates.size(), duplicates.subList(0, Math.min(5, duplicates.size())),
+                collection, query);
+        return true;
+    }
+
+    private Set<Class<?>> documentEntities() {
+        Set<Class<?>> entities = new LinkedHashSet<>();
+        for (MongoPersistentEntity<?> entity : mongoTemplate.getConverter().getMappingContext().getPersistentEntities()) {
+            if (entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                entities.add(entity.getType());
+            }
+        }
+        return entities;
+    }
+
+    private static boolean sameKeys(IndexInfo info, IndexDefinition index) {
+        Map<String, Integer> existingKeys = new LinkedHashMap<>();
+        for (IndexField field : info.getIndexFields()) {
+            if (field.getDirection() == null) return false; // Indici testuali/geo: mai dichiarati qui
+            existingKeys.put(field.getKey(), field.getDirection() == Sort.Direction.ASC ? 1 : -1);
+        }
+        Map<String, Integer> declaredKeys = new LinkedHashMap<>();
+        index.getIndexKeys().forEach((key, direction) -> declaredKeys.put(key, ((Number) direction).intValue()));
+        return new ArrayList<>(existingKeys.entrySet()).equals(new ArrayList<>(declaredKeys.entrySet()));
+    }
+
+    private static boolean isUnique(IndexDefinition index) {
+        return index.getIndexOptions().getBoolean("unique", false);
+    }
+
+    private static String nameOf(IndexDefinition index) {
+        String name = index.getIndexOptions().getString("name");
+        return name != null ? name : index.getIndexKeys().toJson();
+    }
+}
@@ -1,5 +1,6 @@
 package com.paypeek.backend.config;
 
+import com.paypeek.backend.batch.PayslipPeriodBackfillTasklet;
 import com.paypeek.backend.batch.PayslipTasklet;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
@@ -28,4 +29,20 @@ public class PayslipBatchConfig {
                 .tasklet(payslipTasklet, transactionManager)
                 .build();
     }
+
+    @Bean
+    public Job payslipPeriodBackfillJob(JobRepository jobRepository, Step payslipPeriodBackfillStep) {
+        return new JobBuilder("payslipPeriodBackfillJob", jobRepository)
+                .start(payslipPeriodBackfillStep)
+                .build();
+    }
+
+    @Bean
+    public Step payslipPeriodBackfillStep(JobRepository jobRepository,
+                                          PlatformTransactionManager transactionManager,
+                                          PayslipPeriodBackfillTasklet payslipPeriodBackfillTasklet) {
+        return new StepBuilder("payslipPeriodBackfillStep", jobRepository)
+                .tasklet(payslipPeriodBackfillTasklet, transactionManager)
+                .build();
+    }
 }
\ No newline at end of file
@@ -2,14 +2,21 @@ package com.paypeek.backend.controller;
 
 import com.paypeek.backend.dto.FileItemDto;
 import com.paypeek.backend.dto.PayslipResponseDto;
+import com.paypeek.backend.dto.UploadJobDto;
+import com.paypeek.backend.dto.YearFolderDto;
+import com.paypeek.backend.exception.ExtractorUnavailableException;
+import com.paypeek.backend.exception.QuotaExceededException;
 import com.paypeek.backend.model.PayrollTemplate;
 import com.paypeek.backend.model.Payslip;
 import com.paypeek.backend.service.PayslipService;
+import com.paypeek.backend.service.UploadJobService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.net.URI;
 import java.util.List;
 import java.util.Objects;
 
@@ -19,6 +26,7 @@ import java.util.Objects;
 public class PayslipController {
 
     private final PayslipService payslipService;
+    private final UploadJobService uploadJobService;
 
     @PostMapping("/folders/{folderId}/upload")
     public ResponseEntity<FileItemDto> uploadFile(
@@ -31,12 +39,45 @@ public class PayslipController {
         return ResponseEntity.ok(payslipService.uploadFile(folderId, file));
     }
 
+    /**
+     * Cartelle anno/mese dell'utente con i file di ciascun mese.
+     */
+    @GetMapping("/folders")
+    public ResponseEntity<List<YearFolderDto>> getFolders() {
+        return ResponseEntity.ok(payslipService.getFolders());
+    }
+
+    /**
+     * Stato dell'elaborazione in background di un file caricato con l'upload singolo.
+     */
+    @GetMapping("/items/{fileId}")
+    public ResponseEntity<FileItemDto> getFileItem(@PathVariable String fileId) {
+        return ResponseEntity.ok(payslipService.getFileItem(fileId));
+    }
+
     @PostMapping("/payslips/upload")
     public ResponseEntity<List<PayslipResponseDto>> massUpload(
             @RequestParam("files") List<MultipartFile> files) {
         return ResponseEntity.ok(payslipService.massUpload(files));
     }
 
+    /**
+     * Mass upload asincrono: risponde subito 202 con l'id del job da interrogare per l'avanzamento.
+     */
+    @PostMapping("/payslips/upload/jobs")
+    public ResponseEntity<UploadJobDto> startMassUploadJob(
+            @RequestParam("files") List<MultipartFile> files) {
+        UploadJobDto job = uploadJobService.submit(files);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/files/payslips/upload/jobs/" + job.getId()))
+                .body(job);
+    }
+
+    @GetMapping("/payslips/upload/jobs/{jobId}")
+    public ResponseEntity<UploadJobDto> getMassUploadJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(uploadJobService.getJob(jobId));
+    }
+
     /**
      * Step 1 & 2: Carica un file per generare un nuovo Template e la relativa Payslip.
      * Questo endpoint attiva lo script Python con Gemini Vision.
@@ -53,6 +94,11 @@ public class PayslipController {
             // Chiamata al service che orchestra Python + MongoDB
             Payslip result = payslipService.buildPayslipTemplate(file);
             return ResponseEntity.ok(result);
+        } catch (QuotaExceededException e) {
+            throw e; // Gestita da GlobalExceptionHandler (429 + Retry-After)
+        } catch (ExtractorUnavailableException e) {
+            // Estrattore saturo o sospeso: il client può riprovare più tardi
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             // Gestione errore (es. quota API finita o errore script)
             return ResponseEntity.internalServerError().build();
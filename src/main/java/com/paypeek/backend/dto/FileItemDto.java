@@ -24,4 +24,8 @@ public class FileItemDto {
     private int anno;
     private int mese;
     private Map<String, Object> dati;
+
+    // PENDING / PROCESSING / READY / FAILED: il FE interroga lo stato finché non è READY o FAILED
+    private String processingState;
+    private String processingError;
 }
\ No newline at end of file
@@ -14,6 +14,8 @@ import java.util.Map;
 @AllArgsConstructor
 public class PayslipResponseDto {
     private String signature;
+    private String layoutFingerprint;
+    private List<String> layoutFeatures;
     private String azienda;
     private Map<String, String> regex;
     private Map<String, Object> extractedData;
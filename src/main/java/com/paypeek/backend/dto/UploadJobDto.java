@@ -0,0 +1,25 @@
+package com.paypeek.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadJobDto {
+    private String id;
+    private String status;
+    private int totalFiles;
+    private int processedFiles;
+    private List<String> fileNames;
+    private List<PayslipResponseDto> results; // null per i file ancora in elaborazione
+    private String errorDetails;
+    private Instant createdAt;
+    private Instant completedAt;
+}
@@ -0,0 +1,26 @@
+package com.paypeek.backend.dto.mapper;
+
+import com.paypeek.backend.dto.UploadJobDto;
+import com.paypeek.backend.model.UploadJob;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UploadJobMapper {
+
+    public UploadJobDto toDto(UploadJob entity) {
+        if (entity == null)
+            return null;
+
+        return UploadJobDto.builder()
+                .id(entity.getId())
+                .status(entity.getStatus())
+                .totalFiles(entity.getTotalFiles())
+                .processedFiles(entity.getProcessedFiles())
+                .fileNames(entity.getFileNames())
+                .results(entity.getResults())
+                .errorDetails(entity.getErrorDetails())
+                .createdAt(entity.getCreatedAt())
+                .completedAt(entity.getCompletedAt())
+                .build();
+    }
+}
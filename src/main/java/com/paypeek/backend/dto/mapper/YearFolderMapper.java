@@ -11,30 +11,41 @@ import org.springframework.stereotype.Component;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Component
 public class YearFolderMapper {
 
-    public YearFolderDto toDto(YearFolder entity) {
+    /**
+     * I FileItem arrivano dalla collection file_items (di solito quelli dell'utente per l'anno) e vengono
+     * ridistribuiti nei mesi: il DTO resta quello della vecchia struttura annidata.
+     */
+    public YearFolderDto toDto(YearFolder entity, List<FileItem> files) {
         if (entity == null)
             return null;
 
+        Map<String, List<FileItem>> filesByMonth = files == null ? Collections.emptyMap() : files.stream()
+                .filter(file -> file.getMonthFolderId() != null)
+                .collect(Collectors.groupingBy(FileItem::getMonthFolderId));
+
         return YearFolderDto.builder()
                 .id(entity.getId())
                 .year(entity.getYear())
                 .color(entity.getColor())
-                .months(toMonthDtoList(entity.getMonths()))
+                .months(toMonthDtoList(entity.getMonths(), filesByMonth))
                 .build();
     }
 
-    private List<MonthFolderDto> toMonthDtoList(List<MonthFolder> months) {
+    private List<MonthFolderDto> toMonthDtoList(List<MonthFolder> months, Map<String, List<FileItem>> filesByMonth) {
         if (months == null)
             return Collections.emptyList();
-        return months.stream().map(this::toDto).collect(Collectors.toList());
+        return months.stream()
+                .map(month -> toDto(month, filesByMonth.get(month.getId())))
+                .collect(Collectors.toList());
     }
 
-    public MonthFolderDto toDto(MonthFolder entity) {
+    public MonthFolderDto toDto(MonthFolder entity, List<FileItem> files) {
         if (entity == null)
             return null;
 
@@ -42,7 +53,7 @@ public class YearFolderMapper {
                 .id(entity.getId())
                 .month(entity.getMonth())
                 .name(entity.getName())
-                .files(toFileDtoList(entity.getFiles()))
+                .files(toFileDtoList(files))
                 .build();
     }
 
@@ -63,6 +74,11 @@ public class YearFolderMapper {
                 .type(entity.getType())
                 .size(entity.getSize())
                 .uploadDate(entity.getUploadDate())
+                .anno(entity.getAnno())
+                .mese(entity.getMese())
+                .dati(entity.getDati())
+                .processingState(entity.getProcessingState() != null ? entity.getProcessingState() : FileItem.READY)
+                .processingError(entity.getProcessingError())
                 .build();
     }
 }
@@ -0,0 +1,23 @@
+package com.paypeek.backend.exception;
+
+import lombok.Getter;
+
+@Getter
+public class ExtractorUnavailableException extends RuntimeException {
+
+    public static final String REJECTED = "REJECTED";          // Limite di concorrenza raggiunto
+    public static final String CIRCUIT_OPEN = "CIRCUIT_OPEN";  // Troppi errori recenti, chiamate sospese
+    public static final String FAILED = "FAILED";              // Tentativi esauriti o errore non recuperabile
+
+    private final String reason;
+
+    public ExtractorUnavailableException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public ExtractorUnavailableException(String reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+}
@@ -3,6 +3,7 @@ package com.paypeek.backend.exception;
 import com.paypeek.backend.dto.ErrorResponseDto;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -117,6 +118,19 @@ public class GlobalExceptionHandler {
                 .body(Map.of("message", ex.getMessage(), "status", 404));
     }
 
+    @ExceptionHandler(ExtractorUnavailableException.class)
+    public ResponseEntity<?> handleExtractorUnavailable(ExtractorUnavailableException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("message", ex.getMessage(), "status", 503, "reason", ex.getReason()));
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<?> handleQuotaExceeded(QuotaExceededException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(Map.of("message", ex.getMessage(), "status", 429));
+    }
+
     @ExceptionHandler(InvalidFileException.class)
     public ResponseEntity<?> handleInvalidFile(InvalidFileException ex) {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -0,0 +1,14 @@
+package com.paypeek.backend.exception;
+
+import lombok.Getter;
+
+@Getter
+public class QuotaExceededException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public QuotaExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,7 @@
+package com.paypeek.backend.exception;
+
+public class RegexBudgetExceededException extends RuntimeException {
+    public RegexBudgetExceededException(String message) {
+        super(message);
+    }
+}
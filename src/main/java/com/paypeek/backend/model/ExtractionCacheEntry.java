@@ -0,0 +1,32 @@
+package com.paypeek.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "extraction_cache")
+@CompoundIndex(name = "user_sha256_idx", def = "{'userId': 1, 'sha256': 1}", unique = true) // Un risultato per file per utente
+public class ExtractionCacheEntry extends BaseEntity {
+
+    private String userId;
+    private String sha256;                  // Hash del contenuto del PDF
+    private Map<String, Object> response;   // Risposta completa di /extract
+    private String markdown;                // Markdown per LightRAG
+
+    // Template con cui sono stati estratti i dati (null = AI Vision generica) e il suo updatedAt:
+    // se il template cambia, i dati in cache non valgono più
+    private String templateId;
+    private Instant templateVersion;
+}
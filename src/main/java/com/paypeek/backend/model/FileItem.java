@@ -4,6 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.Date;
@@ -13,16 +17,39 @@ import java.util.Map;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@Document(collection = "file_items")
+@CompoundIndex(name = "user_year_month_idx", def = "{'userId': 1, 'year': 1, 'month': 1}")
 public class FileItem {
+
+    // Stato dell'elaborazione in background (estrazione + indicizzazione) dopo l'upload singolo
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String READY = "READY";
+    public static final String FAILED = "FAILED";
+
+    @Id
     private String id;
+
+    // Posizione nelle cartelle, unica fonte di verità per navigazione e query (indice userId, year, month):
+    // nel mass upload è il periodo estratto (il mese corrente se non riconosciuto), nell'upload singolo il mese scelto
+    private String userId;
+    private int year;
+    private int month;
+    private String monthFolderId;
+
     private String name;
     private String url;
     private String type;
     private Long size;
     private Instant uploadDate;
 
-    // Campi aggiuntivi persistenti
+    // Periodo letto dal cedolino, solo informativo (0 = non riconosciuto o elaborazione in corso).
+    // Differisce da year/month solo se l'utente carica il file in un altro mese, caso segnalato nel log
     private int anno;
     private int mese;
     private Map<String, Object> dati;
+
+    @Indexed(name = "processing_state_idx") // File rimasti in elaborazione al riavvio
+    private String processingState;     // null per i file caricati prima dell'elaborazione in background = READY
+    private String processingError;
 }
@@ -0,0 +1,42 @@
+package com.paypeek.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Documento in attesa di indicizzazione su LightRAG. La coda sopravvive ai riavvii e
+ * l'hash del contenuto evita di indicizzare due volte lo stesso testo.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "lightrag_outbox")
+@CompoundIndex(name = "status_next_attempt_idx", def = "{'status': 1, 'nextAttemptAt': 1}")
+public class LightRagOutboxEntry extends BaseEntity {
+
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Indexed(name = "content_hash_idx", unique = true)
+    private String contentHash;
+    private String title;
+    private String content;                     // Rimosso dopo l'indicizzazione, resta l'hash per la deduplica
+    private String status;                      // PENDING / PROCESSING / DONE / FAILED
+    private int attempts;
+    private Instant nextAttemptAt;
+    private Instant lockedUntil;                // Lease del worker: scaduto, il documento torna prelevabile
+    private String lastError;
+    private Instant completedAt;
+}
@@ -5,9 +5,6 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.util.ArrayList;
-import java.util.List;
-
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,6 +14,7 @@ public class MonthFolder {
     private int month; // 1-12
     private String name; // e.g., "January"
 
-    @Builder.Default
-    private List<FileItem> files = new ArrayList<>();
+    // I FileItem stanno nella collection file_items: qui solo i contatori per la UI
+    private int fileCount;
+    private long totalSize;
 }
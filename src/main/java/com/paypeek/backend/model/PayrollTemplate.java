@@ -2,12 +2,19 @@ package com.paypeek.backend.model;
 
 import lombok.Builder;
 import lombok.Data;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 @Document(collection = "payroll_templates")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_signature_idx", def = "{'userId': 1, 'signature': 1}"), // Anche findByUserId (prefisso)
+        @CompoundIndex(name = "user_layout_idx", def = "{'userId': 1, 'layoutFingerprint': 1}")
+})
 @Data
 @Builder
 public class PayrollTemplate extends BaseEntity{
@@ -16,7 +23,15 @@ public class PayrollTemplate extends BaseEntity{
     private String signature;
     private String userId;
 
+    // Impronta del layout calcolata con PDFBox (vedi LayoutFingerprintService)
+    private String layoutFingerprint;
+    private List<String> layoutFeatures;
+
     // Mappa delle Regex generate dall'IA
     // Chiave: "netto", Valore: "Regex per il netto"
     private Map<String, String> regexPatterns;
+
+    // Regex che superano il budget di esecuzione (vedi RegexSafetyService): escluse dall'estrazione locale
+    private boolean regexUnsafe;
+    private List<String> unsafePatterns;
 }
\ No newline at end of file
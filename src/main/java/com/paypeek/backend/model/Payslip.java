@@ -2,11 +2,17 @@ package com.paypeek.backend.model;
 
 import lombok.Builder;
 import lombok.Data;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.Instant;
 import java.util.Map;
 
 @Document(collection = "payslips")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_year_month_idx", def = "{'userId': 1, 'year': 1, 'month': 1}"), // Storico per periodo (reminder)
+        @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1}")
+})
 @Data
 @Builder
 public class Payslip extends BaseEntity {
@@ -15,6 +21,10 @@ public class Payslip extends BaseEntity {
     private String templateId; // Collegamento al PayrollTemplate creato
     private String fileName;
 
+    // Periodo normalizzato da extractedData.periodo (PayslipPeriod), null se l'IA non l'ha riconosciuto
+    private Integer year;
+    private Integer month;
+
     // Qui salviamo i dati dinamici tornati dallo script Python
     // Esempio: { "netto": 1647.0, "azienda": "SEEDMA S.R.L.", "bonus": 100.0 }
     private Map<String, Object> extractedData;
@@ -0,0 +1,44 @@
+package com.paypeek.backend.model;
+
+import com.paypeek.backend.dto.PayslipResponseDto;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "upload_jobs")
+public class UploadJob extends BaseEntity {
+
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    private String userId;
+    @Indexed(name = "status_idx") // Job PENDING/RUNNING rimasti appesi, chiusi come FAILED all'avvio
+    private String status;                      // PENDING / RUNNING / COMPLETED / FAILED
+    private int totalFiles;
+    private int processedFiles;
+
+    @Builder.Default
+    private List<String> fileNames = new ArrayList<>();
+
+    // Stessa posizione di fileNames: null finché il file non è stato elaborato
+    @Builder.Default
+    private List<PayslipResponseDto> results = new ArrayList<>();
+
+    private String errorDetails;
+    private Instant completedAt;
+}
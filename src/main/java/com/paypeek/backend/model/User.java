@@ -3,6 +3,7 @@ package com.paypeek.backend.model;
 import com.paypeek.backend.dto.enums.Language;
 import com.paypeek.backend.dto.enums.Role;
 import com.paypeek.backend.dto.enums.Theme;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -24,6 +25,7 @@ public class User extends BaseEntity {
     private String nationality;
     private String city;
     private String country;
+    @Indexed(name = "email_idx", unique = true) // Lookup a ogni richiesta autenticata (JWT)
     private String email;
     private String passwordHash;
     private Role role;
@@ -40,6 +42,7 @@ public class User extends BaseEntity {
     @lombok.Builder.Default
     private Integer uploadedDocumentsCount = 0;
     private boolean emailNotifications;
+    @Indexed(name = "reset_token_idx", sparse = true)
     private String resetToken;
     private Instant resetTokenExpiry;
     private Integer notificationStartYear;
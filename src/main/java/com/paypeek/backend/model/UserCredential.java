@@ -1,5 +1,6 @@
 package com.paypeek.backend.model;
 
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -16,7 +17,9 @@ import java.util.List;
 @Document(collection = "user_credentials")
 public class UserCredential extends BaseEntity {
 
+    @Indexed(name = "user_idx")
     private String userId;
+    @Indexed(name = "credential_id_idx", unique = true)
     private String credentialId;
     private byte[] publicKey;
     private long signCount;
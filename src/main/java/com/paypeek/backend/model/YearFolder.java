@@ -5,6 +5,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.ArrayList;
@@ -16,6 +18,10 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "year_folders")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_year_idx", def = "{'userId': 1, 'year': 1}", unique = true), // Una cartella per anno: base dell'upsert concorrente
+        @CompoundIndex(name = "user_month_idx", def = "{'userId': 1, 'months._id': 1}")
+})
 public class YearFolder extends BaseEntity {
 
     // BaseEntity provides id, createdDate, lastModifiedDate
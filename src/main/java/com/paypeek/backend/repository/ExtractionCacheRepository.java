@@ -0,0 +1,13 @@
+package com.paypeek.backend.repository;
+
+import com.paypeek.backend.model.ExtractionCacheEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ExtractionCacheRepository extends MongoRepository<ExtractionCacheEntry, String> {
+
+    Optional<ExtractionCacheEntry> findByUserIdAndSha256(String userId, String sha256);
+}
@@ -0,0 +1,13 @@
+package com.paypeek.backend.repository;
+
+import com.paypeek.backend.model.LightRagOutboxEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LightRagOutboxRepository extends MongoRepository<LightRagOutboxEntry, String> {
+
+    long countByStatusIn(List<String> statuses);
+}
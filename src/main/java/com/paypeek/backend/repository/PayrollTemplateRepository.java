@@ -2,6 +2,7 @@ package com.paypeek.backend.repository;
 
 import com.paypeek.backend.model.PayrollTemplate;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,5 +13,10 @@ public interface PayrollTemplateRepository extends MongoRepository<PayrollTempla
 
     Optional<PayrollTemplate> findBySignature(String signature);
     Optional<PayrollTemplate> findBySignatureAndUserId(String signature, String userId);
+    Optional<PayrollTemplate> findFirstByLayoutFingerprintAndUserId(String layoutFingerprint, String userId);
     List<PayrollTemplate> findByUserId(String userId);
+
+    // Solo id e feature: bastano per il confronto di similarità del layout
+    @Query(value = "{ 'userId': ?0, 'layoutFeatures': { $ne: null } }", fields = "{ 'layoutFeatures': 1 }")
+    List<PayrollTemplate> findLayoutFeaturesByUserId(String userId);
 }
\ No newline at end of file
@@ -12,6 +12,6 @@ public interface PayslipRepository extends MongoRepository<Payslip, String> {
     List<Payslip> findByTemplateId(String templateId);
     List<Payslip> findByUserIdOrderByCreatedAtDesc(String userId);
 
-    @Query("{ 'userId': ?0, 'extractedData.periodo.anno': ?1 }")
-    List<Payslip> findByUserIdAndYear(String userId, String year);
+    @Query(value = "{ 'userId': ?0, 'year': ?1 }", fields = "{ 'month': 1 }")
+    List<Payslip> findMonthsByUserIdAndYear(String userId, int year);
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package com.paypeek.backend.repository;
+
+import com.paypeek.backend.model.UploadJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UploadJobRepository extends MongoRepository<UploadJob, String> {
+}
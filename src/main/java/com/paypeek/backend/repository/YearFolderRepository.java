@@ -17,4 +17,11 @@ public interface YearFolderRepository extends MongoRepository<YearFolder, String
 
     @Query("{ 'months._id': ?0 }")
     Optional<YearFolder> findByMonthId(String monthId);
+
+    /**
+     * Verifica che il mese appartenga all'utente tramite l'indice (userId, months._id), restituendo
+     * solo l'id della cartella anno: mesi e FileItem non vengono caricati.
+     */
+    @Query(value = "{ 'userId': ?0, 'months._id': ?1 }", fields = "{ '_id': 1 }")
+    Optional<YearFolder> findIdByUserIdAndMonthId(String userId, String monthId);
 }
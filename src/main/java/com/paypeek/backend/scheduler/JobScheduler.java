@@ -4,6 +4,11 @@ import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import java.time.LocalDateTime;
@@ -13,10 +18,36 @@ public class JobScheduler {
 
     private final JobLauncher jobLauncher;
     private final Job notifyUsersJob;
+    private final Job payslipPeriodBackfillJob;
+    private final boolean backfillEnabled;
 
-    public JobScheduler(JobLauncher jobLauncher, Job notifyUsersJob) {
+    public JobScheduler(JobLauncher jobLauncher,
+                        @Qualifier("notifyUsersJob") Job notifyUsersJob,
+                        @Qualifier("payslipPeriodBackfillJob") Job payslipPeriodBackfillJob,
+                        @Value("${app.migration.payslip-period.enabled:true}") boolean backfillEnabled) {
         this.jobLauncher = jobLauncher;
         this.notifyUsersJob = notifyUsersJob;
+        this.payslipPeriodBackfillJob = payslipPeriodBackfillJob;
+        this.backfillEnabled = backfillEnabled;
+    }
+
+    /**
+     * Backfill di year/month sulle Payslip esistenti, in background all'avvio: a regime non trova
+     * documenti da aggiornare e termina subito.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void runPayslipPeriodBackfill() {
+        if (!backfillEnabled) return;
+        try {
+            JobParameters params = new JobParametersBuilder()
+                    .addLocalDateTime("timestamp", LocalDateTime.now())
+                    .toJobParameters();
+
+            jobLauncher.run(payslipPeriodBackfillJob, params);
+        } catch (Exception e) {
+            System.err.println("Errore durante l'avvio del backfill dei periodi: " + e.getMessage());
+        }
     }
 
     @Scheduled(cron = "0 0 9 1 * *")
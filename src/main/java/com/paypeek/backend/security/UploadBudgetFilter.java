@@ -0,0 +1,120 @@
+package com.paypeek.backend.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paypeek.backend.util.UploadReservation;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Budget globale dei byte di upload in volo.
+ * <p>
+ * Ogni upload multipart su /api/files prenota la propria Content-Length (o la dimensione massima
+ * consentita se non dichiarata). La prenotazione ({@link UploadReservation}) resta occupata finché
+ * la richiesta è in corso e finché i file letti non vengono chiusi: job asincroni ed elaborazione
+ * in background la rilasciano a fine lavoro. A budget esaurito la richiesta attende fino a
+ * {@code app.upload.budget-wait-ms}, poi riceve 429 con Retry-After.
+ */
+@Component
+@Slf4j
+public class UploadBudgetFilter extends OncePerRequestFilter {
+
+    private static final long UNIT_BYTES = 1024; // I permessi del semaforo sono in KiB
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore budget;
+    private final int totalPermits;
+    private final long maxWaitMillis;
+    private final long retryAfterSeconds;
+    private final long unknownLengthBytes;
+
+    public UploadBudgetFilter(ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.upload.inflight-budget:256MB}") DataSize inflightBudget,
+                              @Value("${app.upload.budget-wait-ms:5000}") long maxWaitMillis,
+                              @Value("${app.upload.budget-retry-after-seconds:5}") long retryAfterSeconds,
+                              @Value("${spring.servlet.multipart.max-request-size:10MB}") DataSize maxRequestSize) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, inflightBudget.toBytes() / UNIT_BYTES));
+        this.budget = new Semaphore(totalPermits, true);
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.unknownLengthBytes = maxRequestSize.toBytes();
+
+        meterRegistry.gauge("paypeek.upload.inflight.bytes", this, filter -> filter.inFlightBytes());
+        meterRegistry.gauge("paypeek.upload.inflight.budget.bytes", this, filter -> (double) filter.totalPermits * UNIT_BYTES);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return !"POST".equalsIgnoreCase(request.getMethod())
+                || contentType == null
+                || !contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)
+                || !request.getRequestURI().startsWith("/api/files/");
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain) throws ServletException, IOException {
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            length = unknownLengthBytes; // Chunked: prenotiamo il massimo accettato
+        }
+        // Una richiesta più grande dell'intero budget passa da sola, quando il budget è tutto libero
+        int permits = (int) Math.min(totalPermits, Math.max(1, (length + UNIT_BYTES - 1) / UNIT_BYTES));
+
+        boolean acquired;
+        try {
+            acquired = budget.tryAcquire(permits, maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            meterRegistry.counter("paypeek.upload.inflight.rejected").increment();
+            log.warn("Upload rifiutato per budget esaurito: {} byte richiesti, {} byte in volo", length, (long) inFlightBytes());
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), Map.of(
+                    "message", "Troppi upload in corso, riprova tra qualche secondo.",
+                    "status", HttpStatus.TOO_MANY_REQUESTS.value()));
+            return;
+        }
+
+        UploadReservation reservation = new UploadReservation(() -> budget.release(permits));
+        request.setAttribute(UploadReservation.ATTRIBUTE, reservation);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            // Se i file sono passati a un job o al background, il budget si libera quando vengono chiusi
+            reservation.release();
+        }
+    }
+
+    private double inFlightBytes() {
+        return (double) (totalPermits - budget.availablePermits()) * UNIT_BYTES;
+    }
+}
@@ -1,119 +1,142 @@
 package com.paypeek.backend.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paypeek.backend.exception.ExtractorUnavailableException;
+import com.paypeek.backend.util.ExtractionResult;
+import com.paypeek.backend.util.IngestedFile;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.multipart.MultipartFile;
-import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 
 @Service
 @Slf4j
-public class AIService {
-
-    //    @Value("${app.extractor.url:http://paypeek-extractor:8000}") //PROD
-    @Value("${app.extractor.url:http://localhost:8000}") //DEV
-    private String extractorUrl;
+public class AIService implements BatchExtractor {
 
     private final ObjectMapper objectMapper;
     private final RestTemplate restTemplate;
+    private final ExtractorGateway extractorGateway;
+    private final ExtractorEndpointPool endpointPool;
 
     public AIService(ObjectMapper objectMapper,
-                     RestTemplateBuilder restTemplateBuilder) {
+                     RestTemplateBuilder restTemplateBuilder,
+                     HttpComponentsClientHttpRequestFactory aiRequestFactory,
+                     ExtractorGateway extractorGateway,
+                     ExtractorEndpointPool endpointPool) {
         this.objectMapper = objectMapper;
+        this.extractorGateway = extractorGateway;
+        this.endpointPool = endpointPool;
+        // Pool condiviso (HttpClientConfig): keep-alive, timeout e body multipart in streaming.
+        // Il builder di Spring Boot registra la latenza per chiamata su http.client.requests
         this.restTemplate = restTemplateBuilder
-                .connectTimeout(Duration.ofSeconds(5))
-                .readTimeout(Duration.ofSeconds(300))
+                .requestFactory(() -> aiRequestFactory)
                 .build();
     }
 
 
     /**
-     * Chiama Python passando il file e le regex del template salvato
+     * Estrazione completa con AI Vision: markdown per LightRAG, dati strutturati, signature e regex
+     * del layout, tutto da una sola chiamata a /extract.
      */
-    public Map<String, Object> callPythonExtractor(MultipartFile file) {
-        return callPythonEndpoint(file, "/extract", null);
+    public ExtractionResult extract(IngestedFile file, String userId, ExtractionPriority priority) {
+        return ExtractionResult.from(callPythonEndpoint(file, "/extract", null, userId, priority));
     }
 
-    public Map<String, Object> callPythonWithTemplate(MultipartFile file, Map<String, String> patterns) {
+    /**
+     * Chiama Python passando il file e le regex del template salvato
+     */
+    public ExtractionResult callPythonWithTemplate(IngestedFile file, Map<String, String> patterns,
+                                                   String userId, ExtractionPriority priority) {
+        String patternsJson;
         try {
-            String patternsJson = objectMapper.writeValueAsString(patterns);
-            return callPythonEndpoint(file, "/extract-by-template", patternsJson);
-        } catch (Exception e) {
+            patternsJson = objectMapper.writeValueAsString(patterns);
+        } catch (JsonProcessingException e) {
+            log.error("Regex del template non serializzabili: {}", e.getMessage());
             return null;
         }
+        return ExtractionResult.from(callPythonEndpoint(file, "/extract-by-template", patternsJson, userId, priority));
     }
 
-    public Map<String, Object> callPythonEndpoint(MultipartFile file, String endpoint, String rules) {
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    /**
+     * Le chiamate passano da {@link ExtractorGateway}: in caso di estrattore saturo, sospeso o
+     * irraggiungibile viene lanciata {@link ExtractorUnavailableException}.
+     */
+    public Map<String, Object> callPythonEndpoint(IngestedFile file, String endpoint, String rules,
+                                                  String userId, ExtractionPriority priority) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
 
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", new ByteArrayResource(file.getBytes()) {
-                @Override public String getFilename() { return file.getOriginalFilename(); }
-            });
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("file", file.asResource(sanitizeFilename(file.getOriginalFilename())));
 
-            if (rules != null) {
-                body.add("template_rules", rules);
-            }
+        if (rules != null) {
+            body.add("template_rules", rules);
+        }
 
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-            ResponseEntity<Map> response = restTemplate.postForEntity(extractorUrl + endpoint, requestEntity, Map.class);
+        HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+        try {
+            // Ogni tentativo (anche i retry) sceglie la replica meno carica
+            ResponseEntity<Map> response = extractorGateway.execute(endpoint, userId, priority, () -> endpointPool.call(
+                    baseUrl -> restTemplate.postForEntity(baseUrl + endpoint, requestEntity, Map.class)));
             return response.getBody();
-        } catch (Exception e) {
+        } catch (ExtractorUnavailableException e) {
             log.error("Errore chiamata Python {}: {}", endpoint, e.getMessage());
-            return null;
+            throw e;
         }
     }
 
-    public String extractMarkdown(MultipartFile file) {
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-
-            // Pulizia del nome file: rimuoviamo apostrofi e caratteri non standard
-            String sanitizedFilename = file.getOriginalFilename()
-                    .replaceAll("['\\s]", "_") // Sostituisce apostrofi e spazi con underscore
-                    .replaceAll("[^a-zA-Z0-9._-]", ""); // Rimuove tutto il resto tranne punti e trattini
-
-            ByteArrayResource resource = new ByteArrayResource(file.getBytes()) {
-                @Override
-                public String getFilename() {
-                    return sanitizedFilename;
-                }
-            };
+    /**
+     * Estrazione di più file con una sola richiesta a {@code /extract-batch} (parti multipart "files",
+     * regex opzionali comuni a tutto il batch). La risposta {"results": [...]} segue l'ordine dei file.
+     * I batch nascono solo dal mass upload, quindi hanno sempre priorità BULK.
+     */
+    @Override
+    public List<Map<String, Object>> extractBatch(String userId, List<IngestedFile> files, Map<String, String> patterns) {
+        String rules = null;
+        if (patterns != null) {
+            try {
+                rules = objectMapper.writeValueAsString(patterns);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Regex del template non serializzabili", e);
+            }
+        }
 
-            body.add("file", resource);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
 
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        files.forEach(file -> body.add("files", file.asResource(sanitizeFilename(file.getOriginalFilename()))));
+        if (rules != null) {
+            body.add("template_rules", rules);
+        }
 
-            ResponseEntity<Map> response = restTemplate.postForEntity(
-                    extractorUrl + "/extract",
-                    requestEntity,
-                    Map.class
-            );
+        HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+        ResponseEntity<Map> response = extractorGateway.execute("/extract-batch", userId, ExtractionPriority.BULK, () -> endpointPool.call(
+                baseUrl -> restTemplate.postForEntity(baseUrl + "/extract-batch", requestEntity, Map.class)));
 
-            if (response.getBody() != null && response.getBody().containsKey("markdown")) {
-                return (String) response.getBody().get("markdown");
-            }
-            return null;
-        } catch (Exception e) {
-            // Logga l'eccezione completa per vedere la causa reale (es. Timeout o Connection Reset)
-            log.error("Estrazione Fallita per {}: {}", file.getOriginalFilename(), e.toString());
-            return null;
+        Object results = response.getBody() != null ? response.getBody().get("results") : null;
+        if (!(results instanceof List<?> list)) {
+            throw new IllegalStateException("Risposta batch dell'estrattore senza 'results'");
         }
+        return (List<Map<String, Object>>) list;
+    }
+
+    /**
+     * Pulizia del nome file: rimuoviamo apostrofi e caratteri non standard
+     */
+    private static String sanitizeFilename(String filename) {
+        return filename
+                .replaceAll("['\\s]", "_") // Sostituisce apostrofi e spazi con underscore
+                .replaceAll("[^a-zA-Z0-9._-]", ""); // Rimuove tutto il resto tranne punti e trattini
     }
 }
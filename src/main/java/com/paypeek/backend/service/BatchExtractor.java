@@ -0,0 +1,16 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.IngestedFile;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estrazione di più file con una sola richiesta. I risultati devono avere lo stesso ordine dei file.
+ * Implementata da {@link AIService}; nei test basta una lambda.
+ */
+@FunctionalInterface
+public interface BatchExtractor {
+
+    List<Map<String, Object>> extractBatch(String userId, List<IngestedFile> files, Map<String, String> patterns);
+}
@@ -12,7 +12,8 @@ import org.springframework.stereotype.Service;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -92,16 +93,15 @@ public class BatchReminderService {
     private void calculateHistory(User user, int startYear, LocalDate today, List<String> found, List<String> missing) {
         for (int y = startYear; y <= today.getYear(); y++) {
             int lastMonth = (y == today.getYear()) ? today.getMonthValue() - 1 : 12;
-            List<Payslip> yearPayslips = payslipRepository.findByUserIdAndYear(user.getId(), String.valueOf(y));
-
-            List<String> uploadedMonthNames = yearPayslips.stream()
-                    .map(p -> (String) ((Map<String, Object>) p.getExtractedData().get("periodo")).get("mese"))
-                    .toList();
+            Set<Integer> uploadedMonths = payslipRepository.findMonthsByUserIdAndYear(user.getId(), y).stream()
+                    .map(Payslip::getMonth)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
 
             for (int m = 0; m < lastMonth; m++) {
                 String monthName = ITALIAN_MONTHS.get(m);
                 String label = monthName + " " + y;
-                if (uploadedMonthNames.stream().anyMatch(n -> n.equalsIgnoreCase(monthName))) {
+                if (uploadedMonths.contains(m + 1)) {
                     found.add(label);
                 } else {
                     missing.add(label);
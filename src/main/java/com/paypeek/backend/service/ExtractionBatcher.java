@@ -0,0 +1,155 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.IngestedFile;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Raggruppa le richieste di estrazione in batch da inviare all'estrattore con una sola chiamata.
+ * <p>
+ * I file dello stesso utente con la stessa chiave di gruppo (es. id del template) si accodano nello stesso batch, che parte
+ * appena raggiunge {@code app.extraction.batch.size} file oppure dopo {@code app.extraction.batch.max-wait-ms}
+ * dal primo file accodato. Ogni file riceve il proprio risultato tramite un {@link CompletableFuture}.
+ */
+@Component
+@Slf4j
+public class ExtractionBatcher {
+
+    private final BatchExtractor extractor;
+    private final int batchSize;
+    private final long maxWaitMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService dispatcher;
+
+    // Batch in riempimento, per chiave di gruppo (accesso sincronizzato su this)
+    private final Map<String, PendingBatch> pending = new HashMap<>();
+
+    public ExtractionBatcher(BatchExtractor extractor,
+                             @Value("${app.extraction.batch.size:8}") int batchSize,
+                             @Value("${app.extraction.batch.max-wait-ms:200}") long maxWaitMillis,
+                             @Value("${app.extraction.batch.dispatch-threads:4}") int dispatchThreads) {
+        this.extractor = extractor;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitMillis = maxWaitMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "extraction-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), runnable -> {
+            Thread thread = new Thread(runnable, "extraction-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        dispatcher.shutdownNow();
+        synchronized (this) {
+            pending.values().forEach(batch -> batch.fail(new IllegalStateException("Applicazione in arresto")));
+            pending.clear();
+        }
+    }
+
+    public CompletableFuture<Map<String, Object>> submit(String userId, String group, IngestedFile file,
+                                                         Map<String, String> patterns) {
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        String groupKey = userId + ":" + group;
+        PendingBatch ready = null;
+
+        synchronized (this) {
+            PendingBatch batch = pending.get(groupKey);
+            if (batch == null) {
+                batch = new PendingBatch(userId, patterns);
+                pending.put(groupKey, batch);
+                PendingBatch scheduled = batch;
+                batch.timer = scheduler.schedule(() -> flush(groupKey, scheduled), maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.files.add(file);
+            batch.results.add(result);
+
+            if (batch.files.size() >= batchSize) {
+                pending.remove(groupKey);
+                batch.timer.cancel(false);
+                ready = batch;
+            }
+        }
+
+        if (ready != null) {
+            dispatch(ready);
+        }
+        return result;
+    }
+
+    private void flush(String groupKey, PendingBatch batch) {
+        synchronized (this) {
+            // Il batch potrebbe essere già partito perché pieno
+            if (pending.get(groupKey) != batch) {
+                return;
+            }
+            pending.remove(groupKey);
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(PendingBatch batch) {
+        try {
+            dispatcher.execute(() -> run(batch));
+        } catch (RuntimeException e) {
+            batch.fail(e);
+        }
+    }
+
+    private void run(PendingBatch batch) {
+        long start = System.nanoTime();
+        try {
+            List<Map<String, Object>> results = extractor.extractBatch(batch.userId, batch.files, batch.patterns);
+            if (results == null || results.size() != batch.files.size()) {
+                throw new IllegalStateException("L'estrattore ha restituito " + (results == null ? 0 : results.size())
+                        + " risultati per " + batch.files.size() + " file");
+            }
+            for (int i = 0; i < results.size(); i++) {
+                batch.results.get(i).complete(results.get(i));
+            }
+            log.debug("Batch di {} file estratto in {} ms", batch.files.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            log.error("Estrazione batch di {} file fallita: {}", batch.files.size(), e.getMessage());
+            batch.fail(e);
+        }
+    }
+
+    private static final class PendingBatch {
+        private final String userId;
+        private final Map<String, String> patterns;
+        private final List<IngestedFile> files = new ArrayList<>();
+        private final List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        private PendingBatch(String userId, Map<String, String> patterns) {
+            this.userId = userId;
+            this.patterns = patterns;
+        }
+
+        private void fail(Throwable error) {
+            results.forEach(result -> result.completeExceptionally(error));
+        }
+    }
+}
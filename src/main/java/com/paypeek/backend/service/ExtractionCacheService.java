@@ -0,0 +1,229 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.model.ExtractionCacheEntry;
+import com.paypeek.backend.model.PayrollTemplate;
+import com.paypeek.backend.repository.ExtractionCacheRepository;
+import com.paypeek.backend.util.ExtractionResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Cache dei risultati dell'estrattore Python, per utente e SHA-256 del file.
+ * Davanti alla collection extraction_cache c'è una LRU in memoria; un hit evita la chiamata all'estrattore.
+ * <p>
+ * I risultati si fondono campo per campo (un'estrazione guidata non cancella signature e regex di /extract).
+ * I dati estratti sono legati al template che li ha prodotti: con un template diverso o modificato
+ * dopo il salvataggio ({@code updatedAt}) la voce non vale come hit per i dati.
+ */
+@Service
+@Slf4j
+public class ExtractionCacheService {
+
+    private final ExtractionCacheRepository extractionCacheRepository;
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final Map<String, ExtractionCacheEntry> memory;
+
+    private final Counter memoryHits;
+    private final Counter mongoHits;
+    private final Counter misses;
+
+    public ExtractionCacheService(ExtractionCacheRepository extractionCacheRepository,
+                                  MongoTemplate mongoTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.extraction-cache.enabled:true}") boolean enabled,
+                                  @Value("${app.extraction-cache.max-entries:200}") int maxEntries) {
+        this.extractionCacheRepository = extractionCacheRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ExtractionCacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+
+        this.memoryHits = meterRegistry.counter("paypeek.extraction.cache", "result", "hit", "layer", "memory");
+        this.mongoHits = meterRegistry.counter("paypeek.extraction.cache", "result", "hit", "layer", "mongo");
+        this.misses = meterRegistry.counter("paypeek.extraction.cache", "result", "miss", "layer", "none");
+        meterRegistry.gaugeMapSize("paypeek.extraction.cache.memory.size", Collections.emptyList(), memory);
+    }
+
+    /**
+     * Risultato di /extract per il file, se già estratto in precedenza dallo stesso utente e se
+     * contiene ciò che serve al chiamante (es. {@link ExtractionResult#hasData()}).
+     */
+    public Optional<ExtractionResult> get(String userId, String sha256, Predicate<ExtractionResult> usable) {
+        return lookup(userId, sha256, entry -> usable.test(resultOf(entry)))
+                .map(ExtractionCacheService::resultOf);
+    }
+
+    /**
+     * Dati estratti in cache per il file, solo se prodotti con {@code template} nella sua versione attuale
+     * (template null = AI Vision generica).
+     */
+    public Optional<ExtractionResult> getData(String userId, String sha256, PayrollTemplate template) {
+        String templateId = template != null ? template.getId() : null;
+        Instant version = versionOf(template);
+        return get(userId, sha256, entry -> Objects.equals(entry.getTemplateId(), templateId)
+                && Objects.equals(entry.getTemplateVersion(), version)
+                && resultOf(entry).hasData());
+    }
+
+    /**
+     * Salva un risultato senza template (AI Vision generica).
+     */
+    public void put(String userId, String sha256, ExtractionResult result) {
+        put(userId, sha256, result, null);
+    }
+
+    /**
+     * Fonde il risultato con la voce esistente: solo i campi presenti vengono scritti. Se il risultato ha
+     * dati estratti, la voce viene associata a {@code template} (null = AI Vision generica).
+     */
+    public void put(String userId, String sha256, ExtractionResult result, PayrollTemplate template) {
+        if (!enabled || result == null) return;
+        Map<String, Object> fields = result.toMap();
+        if (fields.isEmpty()) return;
+
+        String templateId = template != null ? template.getId() : null;
+        Instant version = versionOf(template);
+
+        Update update = new Update();
+        fields.forEach((field, value) -> update.set("response." + field, value));
+        if (result.hasMarkdown()) {
+            update.set("markdown", result.markdown());
+        }
+        if (result.hasData()) {
+            update.set("templateId", templateId).set("templateVersion", version);
+        }
+        store(userId, sha256, update);
+
+        // Voce nuova a ogni put (copy-on-write): l'istanza precedente può essere in lettura da un get concorrente
+        memory.compute(key(userId, sha256), (k, current) -> {
+            Map<String, Object> merged = new LinkedHashMap<>();
+            if (current != null && current.getResponse() != null) {
+                merged.putAll(current.getResponse());
+            }
+            merged.putAll(fields);
+            return ExtractionCacheEntry.builder()
+                    .userId(userId)
+                    .sha256(sha256)
+                    .response(merged)
+                    .markdown(result.hasMarkdown() ? result.markdown() : current != null ? current.getMarkdown() : null)
+                    .templateId(result.hasData() ? templateId : current != null ? current.getTemplateId() : null)
+                    .templateVersion(result.hasData() ? version : current != null ? current.getTemplateVersion() : null)
+                    .build();
+        });
+    }
+
+    /**
+     * Il template è stato modificato: i dati estratti con esso vengono rimossi dalle voci dell'utente,
+     * markdown, signature e regex di /extract restano validi.
+     */
+    public void evictTemplate(String userId, String templateId) {
+        if (!enabled || templateId == null) return;
+        synchronized (memory) {
+            memory.values().removeIf(entry -> userId.equals(entry.getUserId()) && templateId.equals(entry.getTemplateId()));
+        }
+        try {
+            long updated = mongoTemplate.updateMulti(
+                    query(where("userId").is(userId).and("templateId").is(templateId)),
+                    new Update()
+                            .unset("response.extractedData")
+                            .unset("response.extracted_data")
+                            .unset("templateId")
+                            .unset("templateVersion")
+                            .set("updatedAt", Instant.now()),
+                    ExtractionCacheEntry.class).getModifiedCount();
+            log.info("Template {} modificato: rimossi i dati estratti da {} voci in cache", templateId, updated);
+        } catch (Exception e) {
+            // Le voci restano ma non sono più hit: la versione del template non corrisponde
+            log.warn("Impossibile ripulire la cache per il template {}: {}", templateId, e.getMessage());
+        }
+    }
+
+    private Optional<ExtractionCacheEntry> lookup(String userId, String sha256,
+                                                  Predicate<ExtractionCacheEntry> usable) {
+        if (!enabled || sha256 == null) return Optional.empty();
+
+        ExtractionCacheEntry cached = memory.get(key(userId, sha256));
+        if (cached != null && usable.test(cached)) {
+            memoryHits.increment();
+            return Optional.of(cached);
+        }
+
+        Optional<ExtractionCacheEntry> stored = extractionCacheRepository.findByUserIdAndSha256(userId, sha256)
+                .filter(usable);
+        if (stored.isPresent()) {
+            mongoHits.increment();
+            memory.put(key(userId, sha256), stored.get());
+        } else {
+            misses.increment();
+        }
+        return stored;
+    }
+
+    private void store(String userId, String sha256, Update update) {
+        try {
+            mongoTemplate.upsert(
+                    query(where("userId").is(userId).and("sha256").is(sha256)),
+                    update.set("updatedAt", Instant.now()).setOnInsert("createdAt", Instant.now()),
+                    ExtractionCacheEntry.class);
+        } catch (DuplicateKeyException e) {
+            // Upsert concorrente sullo stesso file: ora il documento esiste e l'upsert diventa un update
+            mongoTemplate.upsert(
+                    query(where("userId").is(userId).and("sha256").is(sha256)),
+                    update,
+                    ExtractionCacheEntry.class);
+        } catch (Exception e) {
+            // La cache non deve mai far fallire un upload
+            log.warn("Impossibile salvare in cache l'estrazione {} per utente {}: {}", sha256, userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Le voci salvate prima dell'estrazione unificata possono avere solo il markdown o solo la risposta.
+     */
+    private static ExtractionResult resultOf(ExtractionCacheEntry entry) {
+        ExtractionResult result = entry.getResponse() != null
+                ? ExtractionResult.from(entry.getResponse())
+                : new ExtractionResult(null, null, null, null, null, ExtractionResult.SOURCE_EXTRACTOR);
+        if (result.markdown() == null && entry.getMarkdown() != null) {
+            result = new ExtractionResult(entry.getMarkdown(), result.extractedData(), result.signature(),
+                    result.regex(), result.azienda(), result.source());
+        }
+        return result;
+    }
+
+    /**
+     * updatedAt al millisecondo, la precisione con cui MongoDB lo restituisce.
+     */
+    private static Instant versionOf(PayrollTemplate template) {
+        return template != null && template.getUpdatedAt() != null
+                ? template.getUpdatedAt().truncatedTo(ChronoUnit.MILLIS)
+                : null;
+    }
+
+    private static String key(String userId, String sha256) {
+        return userId + ":" + sha256;
+    }
+}
@@ -0,0 +1,224 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.AbortableCall;
+import com.paypeek.backend.util.ExtractionResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Estrazione "hedged" per i documenti con template noto.
+ * <p>
+ * Parte la chiamata guidata dal template; se non risponde entro il p95 delle sue latenze recenti
+ * (o risponde senza dati validi) parte in parallelo anche AI Vision. Vince il primo risultato con
+ * dati estratti, la richiesta HTTP dell'altra chiamata viene interrotta (vedi {@link AbortableCall}).
+ * I thread sono limitati da {@code max-threads}: senza thread liberi l'estrazione procede senza hedging.
+ * <p>
+ * Con {@code app.extraction.batch.enabled} l'hedging è disattivato: le chiamate passano da {@link ExtractionBatcher},
+ * dove una richiesta condivisa con altri file non si può interrompere, quindi la chiamata perdente
+ * continuerebbe a occupare l'estrattore.
+ */
+@Component
+@Slf4j
+public class ExtractionHedger {
+
+    private static final String PRIMARY = "template";
+    private static final String HEDGE = "vision";
+
+    private final boolean enabled;
+    private final long initialDelayMillis;
+    private final long minDelayMillis;
+    private final int minSamples;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor executor;
+
+    // Finestra circolare delle ultime latenze del percorso template (accesso sincronizzato)
+    private final long[] latencies;
+    private int latencyCount;
+    private int latencyNext;
+
+    public ExtractionHedger(MeterRegistry meterRegistry,
+                            @Value("${app.extraction.hedge.enabled:true}") boolean enabled,
+                            @Value("${app.extraction.hedge.window:200}") int window,
+                            @Value("${app.extraction.hedge.min-samples:20}") int minSamples,
+                            @Value("${app.extraction.hedge.initial-delay-ms:15000}") long initialDelayMillis,
+                            @Value("${app.extraction.hedge.min-delay-ms:1000}") long minDelayMillis,
+                            @Value("${app.extraction.hedge.max-threads:16}") int maxThreads,
+                            @Value("${app.extraction.batch.enabled:false}") boolean batchExtraction) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled && !batchExtraction;
+        if (enabled && batchExtraction) {
+            log.info("Hedging delle estrazioni disattivato: con il batching la chiamata perdente non si può annullare");
+        }
+        this.latencies = new long[Math.max(1, window)];
+        this.minSamples = minSamples;
+        this.initialDelayMillis = initialDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        // Nessuna coda: una chiamata accodata dietro le altre perderebbe il senso dell'hedging
+        this.executor = new ThreadPoolExecutor(0, Math.max(2, maxThreads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "extraction-hedge-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        meterRegistry.gauge("paypeek.extraction.hedge.delay", this, hedger -> hedger.hedgeDelayMillis());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Restituisce il primo risultato valido tra {@code primary} e {@code hedge}. Se nessuno dei due è
+     * valido restituisce l'eventuale risposta senza dati, altrimenti rilancia l'errore del percorso primario.
+     */
+    public ExtractionResult extract(Supplier<ExtractionResult> primary, Supplier<ExtractionResult> hedge) {
+        if (!enabled) {
+            return primary.get();
+        }
+
+        LinkedBlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        long delay = hedgeDelayMillis();
+        long start = System.nanoTime();
+
+        AbortableCall primaryCall = new AbortableCall();
+        AbortableCall hedgeCall = new AbortableCall();
+        AtomicBoolean primaryTimed = new AtomicBoolean();
+        Runnable recordPrimaryLatency = () -> {
+            if (primaryTimed.compareAndSet(false, true)) {
+                recordLatency(System.nanoTime() - start);
+            }
+        };
+
+        Future<?> primaryTask;
+        try {
+            primaryTask = executor.submit(() -> {
+                Outcome outcome = primaryCall.run(() -> run(PRIMARY, primary));
+                recordPrimaryLatency.run();
+                outcomes.add(outcome);
+            });
+        } catch (RejectedExecutionException e) {
+            meterRegistry.counter("paypeek.extraction.hedge.saturated").increment();
+            return primary.get();
+        }
+        Future<?> hedgeTask = null;
+
+        Outcome fallback = null;
+        int pending = 1;
+        try {
+            Outcome first = outcomes.poll(delay, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                pending--;
+                if (first.isValid()) {
+                    win(PRIMARY, false);
+                    return first.result();
+                }
+                fallback = first;
+            }
+
+            // Template lento o senza dati validi: parte anche AI Vision
+            String reason = first == null ? "slow" : "failed";
+            meterRegistry.counter("paypeek.extraction.hedges", "reason", reason).increment();
+            log.info("Estrazione template {} dopo {} ms, avvio in parallelo AI Vision", reason,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            try {
+                hedgeTask = executor.submit(() -> outcomes.add(hedgeCall.run(() -> run(HEDGE, hedge))));
+                pending++;
+            } catch (RejectedExecutionException e) {
+                // Thread esauriti: si aspetta solo il template
+                meterRegistry.counter("paypeek.extraction.hedge.saturated").increment();
+            }
+
+            while (pending > 0) {
+                Outcome next = outcomes.take();
+                pending--;
+                if (next.isValid()) {
+                    win(next.source(), true);
+                    return next.result();
+                }
+                fallback = preferred(fallback, next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Estrazione interrotta", e);
+        } finally {
+            // Se ha vinto AI Vision il template è ancora in corso: la sua latenza è almeno quella trascorsa,
+            // e va registrata comunque perché il p95 non si sposti verso le sole chiamate veloci
+            recordPrimaryLatency.run();
+            primaryCall.abort();
+            hedgeCall.abort();
+            // L'interrupt resta per le attese fuori dall'I/O (coda del gateway, backoff dei retry)
+            primaryTask.cancel(true);
+            if (hedgeTask != null) {
+                hedgeTask.cancel(true);
+            }
+        }
+
+        meterRegistry.counter("paypeek.extraction.hedge.wins", "winner", "none", "hedged", "true").increment();
+        if (fallback.error() != null) {
+            throw fallback.error();
+        }
+        return fallback.result();
+    }
+
+    private Outcome run(String source, Supplier<ExtractionResult> call) {
+        try {
+            return new Outcome(source, call.get(), null);
+        } catch (RuntimeException e) {
+            return new Outcome(source, null, e);
+        }
+    }
+
+    /**
+     * Tra due esiti non validi si preferisce una risposta (gestita come 422) a un errore,
+     * e tra due errori quello del percorso template.
+     */
+    private Outcome preferred(Outcome current, Outcome candidate) {
+        if (current == null) return candidate;
+        if (current.error() != null && candidate.error() == null) return candidate;
+        return current;
+    }
+
+    private void win(String source, boolean hedged) {
+        meterRegistry.counter("paypeek.extraction.hedge.wins", "winner", source, "hedged", String.valueOf(hedged)).increment();
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[latencyNext] = TimeUnit.NANOSECONDS.toMillis(nanos);
+        latencyNext = (latencyNext + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+    }
+
+    private synchronized long hedgeDelayMillis() {
+        if (latencyCount < minSamples) {
+            return initialDelayMillis;
+        }
+        long[] window = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(window);
+        long p95 = window[Math.min(window.length - 1, (int) Math.ceil(window.length * 0.95) - 1)];
+        return Math.max(minDelayMillis, p95);
+    }
+
+    private record Outcome(String source, ExtractionResult result, RuntimeException error) {
+        boolean isValid() {
+            return result != null && result.hasData();
+        }
+    }
+}
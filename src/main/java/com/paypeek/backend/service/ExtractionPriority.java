@@ -0,0 +1,10 @@
+package com.paypeek.backend.service;
+
+/**
+ * Classe di priorità delle chiamate all'estrattore: le richieste con un utente in attesa della risposta
+ * (upload singolo, creazione template) passano davanti al lavoro massivo (mass upload, job).
+ */
+public enum ExtractionPriority {
+    INTERACTIVE,
+    BULK
+}
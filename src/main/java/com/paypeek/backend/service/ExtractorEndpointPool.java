@@ -0,0 +1,156 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.AbortableCall;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Repliche dell'estrattore Python ({@code app.extractor.url} accetta una lista separata da virgole).
+ * <p>
+ * Ogni chiamata sceglie l'endpoint con "power of two choices": si estraggono due repliche a caso tra
+ * quelle sane e vince quella con meno richieste in corso (a parità, la latenza media più bassa).
+ * Una replica che accumula errori consecutivi viene esclusa per un intervallo (ejection passiva).
+ */
+@Component
+@Slf4j
+public class ExtractorEndpointPool {
+
+    private final List<Endpoint> endpoints;
+    private final int ejectionThreshold;
+    private final long ejectionNanos;
+    private final double latencyAlpha;
+
+    public ExtractorEndpointPool(MeterRegistry meterRegistry,
+                                 @Value("${app.extractor.url:http://localhost:8000}") String urls,
+                                 @Value("${app.extractor.ejection.failure-threshold:3}") int ejectionThreshold,
+                                 @Value("${app.extractor.ejection.seconds:30}") long ejectionSeconds,
+                                 @Value("${app.extractor.latency-ewma-alpha:0.2}") double latencyAlpha) {
+        this.endpoints = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> url.endsWith("/") ? url.substring(0, url.length() - 1) : url)
+                .distinct()
+                .map(Endpoint::new)
+                .toList();
+        if (endpoints.isEmpty()) {
+            throw new IllegalStateException("app.extractor.url non contiene alcun endpoint");
+        }
+        this.ejectionThreshold = ejectionThreshold;
+        this.ejectionNanos = TimeUnit.SECONDS.toNanos(ejectionSeconds);
+        this.latencyAlpha = latencyAlpha;
+
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("paypeek.extractor.endpoint.latency", endpoint, Endpoint::latencyMillis)
+                    .tag("endpoint", endpoint.url).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("paypeek.extractor.endpoint.outstanding", endpoint, e -> e.outstanding.get())
+                    .tag("endpoint", endpoint.url).register(meterRegistry);
+            Gauge.builder("paypeek.extractor.endpoint.ejected", endpoint, e -> e.isEjected(System.nanoTime()) ? 1 : 0)
+                    .tag("endpoint", endpoint.url).register(meterRegistry);
+        }
+        log.info("Estrattore: {} endpoint configurati {}", endpoints.size(), endpoints.stream().map(e -> e.url).toList());
+    }
+
+    /**
+     * Esegue {@code call} passando l'URL base della replica scelta e ne registra esito e latenza.
+     */
+    public <T> T call(Function<String, T> call) {
+        Endpoint endpoint = choose();
+        endpoint.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T result = call.apply(endpoint.url);
+            onSuccess(endpoint, System.nanoTime() - start);
+            return result;
+        } catch (ResourceAccessException | HttpServerErrorException e) {
+            // Una richiesta interrotta da noi non è un errore della replica
+            if (!AbortableCall.isCurrentAborted()) {
+                onFailure(endpoint);
+            }
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    private Endpoint choose() {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+
+        long now = System.nanoTime();
+        List<Endpoint> healthy = endpoints.stream().filter(e -> !e.isEjected(now)).toList();
+        // Se tutte le repliche sono escluse le proviamo comunque: meglio un tentativo che un rifiuto certo
+        List<Endpoint> candidates = healthy.isEmpty() ? endpoints : healthy;
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) second++;
+
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        int outstandingA = a.outstanding.get();
+        int outstandingB = b.outstanding.get();
+        if (outstandingA != outstandingB) {
+            return outstandingA < outstandingB ? a : b;
+        }
+        return a.latencyMillis() <= b.latencyMillis() ? a : b;
+    }
+
+    private void onSuccess(Endpoint endpoint, long latencyNanos) {
+        double latencyMs = latencyNanos / 1_000_000.0;
+        synchronized (endpoint) {
+            endpoint.ewmaLatencyMs = endpoint.ewmaLatencyMs == 0
+                    ? latencyMs
+                    : latencyAlpha * latencyMs + (1 - latencyAlpha) * endpoint.ewmaLatencyMs;
+            endpoint.consecutiveFailures = 0;
+        }
+    }
+
+    private void onFailure(Endpoint endpoint) {
+        synchronized (endpoint) {
+            endpoint.consecutiveFailures++;
+            if (endpoint.consecutiveFailures >= ejectionThreshold) {
+                endpoint.ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+                endpoint.consecutiveFailures = 0;
+                log.warn("Endpoint estrattore {} escluso per {} s dopo {} errori consecutivi",
+                        endpoint.url, TimeUnit.NANOSECONDS.toSeconds(ejectionNanos), ejectionThreshold);
+            }
+        }
+    }
+
+    private static final class Endpoint {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private double ewmaLatencyMs;
+        private int consecutiveFailures;
+        private long ejectedUntilNanos;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        private synchronized double latencyMillis() {
+            return ewmaLatencyMs;
+        }
+
+        private synchronized boolean isEjected(long now) {
+            return ejectedUntilNanos != 0 && now - ejectedUntilNanos < 0;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.ExtractorUnavailableException;
+import com.paypeek.backend.util.AbortableCall;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Protezione delle chiamate all'estrattore Python:
+ * <ul>
+ *   <li>limite di chiamate in volo adattivo (AIMD): cresce di poco finché le risposte sono veloci,
+ *       si riduce in modo moltiplicativo su errori e latenze oltre soglia;</li>
+ *   <li>circuit breaker con stato half-open: dopo N errori consecutivi le chiamate vengono rifiutate
+ *       subito, poi passa una sola chiamata di prova;</li>
+ *   <li>retry limitati con backoff esponenziale e jitter, solo per errori di rete o 5xx;</li>
+ *   <li>a limite raggiunto le chiamate attendono in coda: prima le {@link ExtractionPriority#INTERACTIVE}
+ *       (con una quota garantita alle BULK per non affamarle) e, dentro ogni classe, a turno tra gli utenti,
+ *       così il mass upload di un utente non rallenta gli altri;</li>
+ *   <li>all'apertura del breaker le chiamate in coda vengono rifiutate subito invece di ricevere slot
+ *       verso un estrattore che sta fallendo.</li>
+ * </ul>
+ * Quando una chiamata non può partire o fallisce definitivamente viene lanciata
+ * {@link ExtractorUnavailableException}, invece di restituire null.
+ */
+@Component
+@Slf4j
+public class ExtractorGateway {
+
+    enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final long interactiveTimeoutNanos;
+    private final long bulkTimeoutNanos;
+    private final int interactiveWeight;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final int maxAttempts;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final MeterRegistry meterRegistry;
+
+    // Stato protetto dal monitor dell'istanza
+    private double limit;
+    private int inFlight;
+    private CircuitState circuitState = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+    private final Map<ExtractionPriority, FairQueue> queues = new EnumMap<>(ExtractionPriority.class);
+    private int interactiveStreak;
+
+    public ExtractorGateway(MeterRegistry meterRegistry,
+                            @Value("${app.extractor.limit.initial:4}") int initialLimit,
+                            @Value("${app.extractor.limit.min:1}") int minLimit,
+                            @Value("${app.extractor.limit.max:16}") int maxLimit,
+                            @Value("${app.extractor.limit.latency-target-ms:60000}") long latencyTargetMillis,
+                            @Value("${app.extractor.limit.acquire-timeout-ms:180000}") long acquireTimeoutMillis,
+                            @Value("${app.extractor.limit.bulk-acquire-timeout-ms:120000}") long bulkAcquireTimeoutMillis,
+                            @Value("${app.extractor.limit.interactive-weight:4}") int interactiveWeight,
+                            @Value("${app.extractor.breaker.failure-threshold:5}") int failureThreshold,
+                            @Value("${app.extractor.breaker.open-seconds:30}") long openSeconds,
+                            @Value("${app.extractor.retry.max-attempts:3}") int maxAttempts,
+                            @Value("${app.extractor.retry.backoff-ms:500}") long backoffBaseMillis,
+                            @Value("${app.extractor.retry.max-backoff-ms:5000}") long backoffMaxMillis) {
+        this.meterRegistry = meterRegistry;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.interactiveTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.bulkTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(bulkAcquireTimeoutMillis);
+        this.interactiveWeight = Math.max(1, interactiveWeight);
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+
+        meterRegistry.gauge("paypeek.extractor.limit", this, gateway -> gateway.currentLimit());
+        meterRegistry.gauge("paypeek.extractor.inflight", this, gateway -> gateway.currentInFlight());
+        meterRegistry.gauge("paypeek.extractor.circuit.open", this, gateway -> gateway.isCircuitOpen() ? 1 : 0);
+        for (ExtractionPriority priority : ExtractionPriority.values()) {
+            queues.put(priority, new FairQueue());
+            meterRegistry.gauge("paypeek.extractor.queue.depth", Tags.of("class", tag(priority)), this,
+                    gateway -> gateway.queueDepth(priority));
+        }
+    }
+
+    /**
+     * Esegue la chiamata con retry, limite di concorrenza e circuit breaker.
+     */
+    public <T> T execute(String operation, String userId, ExtractionPriority priority, Supplier<T> call) {
+        RuntimeException lastError = null;
+
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                sleepWithJitter(attempt - 1);
+            }
+
+            acquire(operation, userId != null ? userId : "anonymous", priority);
+            long start = System.nanoTime();
+            try {
+                T result = call.get();
+                release(true, System.nanoTime() - start);
+                return result;
+            } catch (RuntimeException e) {
+                if (AbortableCall.isCurrentAborted()) {
+                    // Annullata dal chiamante (es. hedging): niente retry e nessun effetto su limite e breaker
+                    releaseNeutral();
+                    throw e;
+                }
+                if (e instanceof HttpClientErrorException) {
+                    // Un 4xx è un problema della singola richiesta: non prova né la salute né il malessere
+                    // dell'estrattore, quindi non chiude il breaker e non tocca il limite
+                    releaseNeutral();
+                } else {
+                    release(false, System.nanoTime() - start);
+                }
+                lastError = e;
+                if (!isRetryable(e)) {
+                    break;
+                }
+                log.warn("Estrattore {}: tentativo {}/{} fallito: {}", operation, attempt, maxAttempts, e.getMessage());
+            }
+        }
+
+        meterRegistry.counter("paypeek.extractor.failures", "operation", operation).increment();
+        throw new ExtractorUnavailableException(ExtractorUnavailableException.FAILED,
+                "Estrattore non raggiungibile: " + (lastError != null ? lastError.getMessage() : "errore sconosciuto"),
+                lastError);
+    }
+
+    private synchronized void acquire(String operation, String userId, ExtractionPriority priority) {
+        long now = System.nanoTime();
+
+        if (circuitState == CircuitState.OPEN) {
+            if (now - openedAtNanos < openDurationNanos) {
+                reject(operation, ExtractorUnavailableException.CIRCUIT_OPEN,
+                        "Estrattore temporaneamente sospeso dopo errori ripetuti");
+            }
+            circuitState = CircuitState.HALF_OPEN;
+            probeInFlight = false;
+        }
+        boolean probe = circuitState == CircuitState.HALF_OPEN;
+        if (probe) {
+            if (probeInFlight) {
+                reject(operation, ExtractorUnavailableException.CIRCUIT_OPEN,
+                        "Estrattore in verifica dopo errori ripetuti");
+            }
+            probeInFlight = true;
+        }
+
+        // Slot libero e nessuno in coda (la chiamata di prova non si mette in coda)
+        if (inFlight < (int) limit && (probe || queueDepth() == 0)) {
+            inFlight++;
+            recordQueueWait(priority, 0);
+            return;
+        }
+        if (probe) {
+            probeInFlight = false;
+            reject(operation, ExtractorUnavailableException.REJECTED, "Estrattore saturo (" + inFlight + " richieste in corso)");
+        }
+
+        Waiter waiter = new Waiter(userId);
+        FairQueue queue = queues.get(priority);
+        queue.add(waiter);
+
+        long deadline = now + (priority == ExtractionPriority.BULK ? bulkTimeoutNanos : interactiveTimeoutNanos);
+        while (!waiter.granted) {
+            if (waiter.circuitOpen) {
+                reject(operation, ExtractorUnavailableException.CIRCUIT_OPEN,
+                        "Estrattore temporaneamente sospeso dopo errori ripetuti");
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                queue.remove(waiter);
+                reject(operation, ExtractorUnavailableException.REJECTED,
+                        "Estrattore saturo (" + inFlight + " richieste in corso, " + queueDepth() + " in coda)");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    break; // Lo slot è già assegnato: la chiamata prosegue e lo rilascerà
+                }
+                queue.remove(waiter);
+                reject(operation, ExtractorUnavailableException.REJECTED, "Attesa interrotta");
+            }
+        }
+        recordQueueWait(priority, System.nanoTime() - now);
+    }
+
+    /**
+     * A breaker aperto nessuno slot viene assegnato: i chiamanti in coda vengono rifiutati subito.
+     */
+    private void dispatchOrReject() {
+        if (circuitState != CircuitState.OPEN) {
+            dispatch();
+            return;
+        }
+        for (FairQueue queue : queues.values()) {
+            Waiter waiter;
+            while ((waiter = queue.poll()) != null) {
+                waiter.circuitOpen = true;
+            }
+        }
+    }
+
+    /**
+     * Assegna gli slot liberi ai chiamanti in coda: INTERACTIVE per primi, ma dopo
+     * {@code interactive-weight} assegnazioni consecutive tocca a una BULK in attesa.
+     */
+    private void dispatch() {
+        FairQueue interactive = queues.get(ExtractionPriority.INTERACTIVE);
+        FairQueue bulk = queues.get(ExtractionPriority.BULK);
+
+        while (inFlight < (int) limit) {
+            Waiter next;
+            if (!interactive.isEmpty() && (bulk.isEmpty() || interactiveStreak < interactiveWeight)) {
+                next = interactive.poll();
+                interactiveStreak++;
+            } else if (!bulk.isEmpty()) {
+                next = bulk.poll();
+                interactiveStreak = 0;
+            } else {
+                break;
+            }
+            next.granted = true;
+            inFlight++;
+        }
+    }
+
+    private void recordQueueWait(ExtractionPriority priority, long nanos) {
+        meterRegistry.timer("paypeek.extractor.queue.wait", "class", tag(priority)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void release(boolean success, long latencyNanos) {
+        inFlight--;
+
+        if (success) {
+            consecutiveFailures = 0;
+            if (circuitState == CircuitState.HALF_OPEN) {
+                log.info("Estrattore di nuovo disponibile, circuit breaker chiuso");
+            }
+            circuitState = CircuitState.CLOSED;
+            probeInFlight = false;
+
+            // Additive increase: +1 ogni "giro" completo di richieste, finché la latenza resta sotto soglia
+            if (latencyNanos <= latencyTargetNanos) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            } else {
+                limit = Math.max(minLimit, limit * 0.9);
+            }
+        } else {
+            // Multiplicative decrease
+            limit = Math.max(minLimit, limit * 0.5);
+            consecutiveFailures++;
+            if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                if (circuitState != CircuitState.OPEN) {
+                    log.warn("Estrattore: {} errori consecutivi, circuit breaker aperto", consecutiveFailures);
+                }
+                circuitState = CircuitState.OPEN;
+                openedAtNanos = System.nanoTime();
+                probeInFlight = false;
+            }
+        }
+        dispatchOrReject();
+        notifyAll();
+    }
+
+    /**
+     * Libera lo slot senza aggiornare limite, contatore degli errori e stato del breaker.
+     */
+    private synchronized void releaseNeutral() {
+        inFlight--;
+        if (circuitState == CircuitState.HALF_OPEN) {
+            probeInFlight = false; // La prossima chiamata farà da prova
+        }
+        dispatchOrReject();
+        notifyAll();
+    }
+
+    private void reject(String operation, String reason, String message) {
+        meterRegistry.counter("paypeek.extractor.rejections", "operation", operation, "reason", reason).increment();
+        throw new ExtractorUnavailableException(reason, message);
+    }
+
+    private boolean isRetryable(RuntimeException e) {
+        return e instanceof ResourceAccessException || e instanceof HttpServerErrorException;
+    }
+
+    /**
+     * Backoff esponenziale con "full jitter": attesa casuale tra 0 e base * 2^tentativo (con tetto).
+     */
+    private void sleepWithJitter(int retry) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(retry, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtractorUnavailableException(ExtractorUnavailableException.FAILED, "Retry interrotto", e);
+        }
+    }
+
+    private synchronized double currentLimit() {
+        return limit;
+    }
+
+    private synchronized int currentInFlight() {
+        return inFlight;
+    }
+
+    private synchronized int queueDepth(ExtractionPriority priority) {
+        return queues.get(priority).size();
+    }
+
+    private int queueDepth() {
+        return queues.values().stream().mapToInt(FairQueue::size).sum();
+    }
+
+    private static String tag(ExtractionPriority priority) {
+        return priority.name().toLowerCase(Locale.ROOT);
+    }
+
+    private synchronized boolean isCircuitOpen() {
+        return circuitState == CircuitState.OPEN;
+    }
+
+    synchronized CircuitState circuitState() {
+        return circuitState;
+    }
+
+    private static final class Waiter {
+        private final String userId;
+        private boolean granted;        // Protetti dal monitor del gateway
+        private boolean circuitOpen;
+
+        private Waiter(String userId) {
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * Coda equa per utente: una coda FIFO per utente e turno circolare tra gli utenti in attesa.
+     * Non thread-safe, usata solo dentro il monitor del gateway.
+     */
+    private static final class FairQueue {
+        private final Map<String, ArrayDeque<Waiter>> byUser = new HashMap<>();
+        private final ArrayDeque<String> turns = new ArrayDeque<>();
+        private int size;
+
+        void add(Waiter waiter) {
+            byUser.computeIfAbsent(waiter.userId, user -> {
+                turns.addLast(user);
+                return new ArrayDeque<>();
+            }).addLast(waiter);
+            size++;
+        }
+
+        Waiter poll() {
+            String user = turns.pollFirst();
+            if (user == null) return null;
+            ArrayDeque<Waiter> waiters = byUser.get(user);
+            Waiter next = waiters.pollFirst();
+            if (waiters.isEmpty()) {
+                byUser.remove(user);
+            } else {
+                turns.addLast(user);
+            }
+            size--;
+            return next;
+        }
+
+        void remove(Waiter waiter) {
+            ArrayDeque<Waiter> waiters = byUser.get(waiter.userId);
+            if (waiters != null && waiters.remove(waiter)) {
+                size--;
+                if (waiters.isEmpty()) {
+                    byUser.remove(waiter.userId);
+                    turns.remove(waiter.userId);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.model.FileItem;
+import com.paypeek.backend.model.YearFolder;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Migrazione dal vecchio layout con i FileItem annidati in year_folders.months[].files[] alla collection
+ * file_items. Ogni cartella viene migrata per intero: prima i file (salvati per _id, quindi la migrazione
+ * è rieseguibile dopo un'interruzione), poi un unico update che incrementa i contatori dei mesi e rimuove
+ * l'array annidato. Gli upload concorrenti scrivono già nel nuovo layout e non interferiscono.
+ */
+@Service
+@Slf4j
+public class FileItemMigrationService {
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+
+    public FileItemMigrationService(MongoTemplate mongoTemplate,
+                                    @Value("${app.migration.file-items.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateEmbeddedFiles() {
+        if (!enabled) return;
+
+        String collection = mongoTemplate.getCollectionName(YearFolder.class);
+        int folders = 0;
+        int files = 0;
+        try (Stream<Document> legacy = mongoTemplate.stream(query(where("months.files").exists(true)), Document.class, collection)) {
+            for (Document folder : (Iterable<Document>) legacy::iterator) {
+                try {
+                    files += migrateFolder(folder, collection);
+                    folders++;
+                } catch (Exception e) {
+                    // La cartella resta nel vecchio layout e viene ritentata al prossimo avvio
+                    log.error("Migrazione FileItem fallita per la cartella {}: {}", folder.get("_id"), e.getMessage());
+                }
+            }
+        }
+        if (folders > 0) {
+            log.info("Migrati {} FileItem da {} cartelle nella collection file_items", files, folders);
+        }
+    }
+
+    private int migrateFolder(Document folder, String collection) {
+        String userId = folder.getString("userId");
+        int year = folder.getInteger("year", 0);
+        List<Document> months = folder.getList("months", Document.class, List.of());
+
+        Update update = new Update();
+        int migrated = 0;
+        for (int i = 0; i < months.size(); i++) {
+            Document month = months.get(i);
+            List<Document> monthFiles = month.getList("files", Document.class);
+            if (monthFiles == null) continue;
+
+            long totalSize = 0;
+            for (Document fileDocument : monthFiles) {
+                FileItem fileItem = mongoTemplate.getConverter().read(FileItem.class, fileDocument);
+                fileItem.setUserId(userId);
+                fileItem.setYear(year);
+                fileItem.setMonth(month.getInteger("month", 0));
+                fileItem.setMonthFolderId(month.getString("_id"));
+                mongoTemplate.save(fileItem);
+                totalSize += fileItem.getSize() != null ? fileItem.getSize() : 0L;
+            }
+
+            // $inc e non $set: i file caricati durante la migrazione hanno già incrementato i contatori
+            String filter = "m" + i;
+            update.inc("months.$[" + filter + "].fileCount", monthFiles.size())
+                    .inc("months.$[" + filter + "].totalSize", totalSize)
+                    .unset("months.$[" + filter + "].files")
+                    .filterArray(where(filter + "._id").is(month.getString("_id")));
+            migrated += monthFiles.size();
+        }
+
+        mongoTemplate.updateFirst(
+                query(where("_id").is(folder.get("_id")).and("months.files").exists(true)),
+                update, collection);
+        return migrated;
+    }
+}
@@ -0,0 +1,107 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.InvalidFileException;
+import com.paypeek.backend.util.IngestedFile;
+import com.paypeek.backend.util.UploadReservation;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Punto unico di lettura degli upload: ogni MultipartFile viene letto una volta sola,
+ * calcolando lo SHA-256 durante lo streaming. Ogni file letto tiene occupata la prenotazione del budget
+ * di upload della richiesta finché non viene chiuso.
+ */
+@Service
+@Slf4j
+public class IngestionService {
+
+    @Value("${app.upload.spool-threshold-bytes:1048576}")
+    private long spoolThresholdBytes;
+
+    @Value("${app.upload.spool-dir:${java.io.tmpdir}/paypeek-uploads}")
+    private Path spoolDir;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(spoolDir);
+
+        // File rimasti da un'esecuzione precedente (es. job interrotti da un riavvio)
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(spoolDir, "upload-*.part")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    public IngestedFile ingest(MultipartFile file) {
+        IngestedFile ingested = read(file);
+        UploadReservation.current().ifPresent(ingested::holding);
+        return ingested;
+    }
+
+    private IngestedFile read(MultipartFile file) {
+        MessageDigest digest = sha256Digest();
+        long size = file.getSize();
+
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            if (size <= spoolThresholdBytes) {
+                byte[] content = in.readNBytes((int) size);
+                return IngestedFile.inMemory(file.getOriginalFilename(), file.getContentType(),
+                        HexFormat.of().formatHex(digest.digest()), content);
+            }
+
+            Path spoolFile = Files.createTempFile(spoolDir, "upload-", ".part");
+            try {
+                long written = Files.copy(in, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+                return IngestedFile.spooled(file.getOriginalFilename(), file.getContentType(), written,
+                        HexFormat.of().formatHex(digest.digest()), spoolFile);
+            } catch (IOException e) {
+                Files.deleteIfExists(spoolFile);
+                throw e;
+            }
+        } catch (IOException e) {
+            log.error("Errore durante la lettura dell'upload {}: {}", file.getOriginalFilename(), e.getMessage());
+            throw new InvalidFileException("Impossibile leggere il file " + file.getOriginalFilename());
+        }
+    }
+
+    /**
+     * Legge tutti i file; in caso di errore chiude quelli già acquisiti prima di propagare l'eccezione.
+     */
+    public List<IngestedFile> ingestAll(List<MultipartFile> files) {
+        List<IngestedFile> ingested = new ArrayList<>();
+        try {
+            for (MultipartFile file : files) {
+                ingested.add(ingest(file));
+            }
+            return ingested;
+        } catch (RuntimeException e) {
+            ingested.forEach(IngestedFile::close);
+            throw e;
+        }
+    }
+
+    private MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.model.PayrollTemplate;
+import com.paypeek.backend.repository.PayrollTemplateRepository;
+import com.paypeek.backend.util.IngestedFile;
+import com.paypeek.backend.util.LayoutFingerprint;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Calcola in locale, con PDFBox, un'impronta del layout della busta paga: dimensioni delle pagine
+ * ed etichette statiche (parole senza cifre) con la loro posizione su una griglia.
+ * Buste paga dello stesso gestionale e della stessa azienda producono la stessa impronta
+ * anche se i valori cambiano ogni mese, a differenza dello SHA-256 dell'intero file.
+ */
+@Service
+@Slf4j
+public class LayoutFingerprintService {
+
+    private static final String VERSION = "layout-v1";
+    private static final float GRID_POINTS = 12f;
+    private static final int MIN_LABELS = 8;
+
+    private static final Pattern HAS_DIGIT = Pattern.compile("\\d");
+    private static final Pattern LETTERS = Pattern.compile("[A-ZÀ-Ý]{2,}");
+    private static final Set<String> MONTH_NAMES = Set.of(
+            "GENNAIO", "FEBBRAIO", "MARZO", "APRILE", "MAGGIO", "GIUGNO",
+            "LUGLIO", "AGOSTO", "SETTEMBRE", "OTTOBRE", "NOVEMBRE", "DICEMBRE", "TREDICESIMA", "QUATTORDICESIMA");
+
+    private final PayrollTemplateRepository payrollTemplateRepository;
+
+    @Value("${app.template.layout-pages:2}")
+    private int maxPages;
+
+    @Value("${app.template.layout-similarity:0.8}")
+    private double minSimilarity;
+
+    public LayoutFingerprintService(PayrollTemplateRepository payrollTemplateRepository) {
+        this.payrollTemplateRepository = payrollTemplateRepository;
+    }
+
+    /**
+     * Impronta del layout, vuota se il PDF non ha un text layer sufficiente (es. scansioni).
+     */
+    public Optional<LayoutFingerprint> fingerprint(IngestedFile file) {
+        try (PDDocument document = file.loadPdf()) {
+            int pages = Math.min(document.getNumberOfPages(), maxPages);
+            List<String> features = new ArrayList<>();
+            features.add("pages:" + Math.min(document.getNumberOfPages(), 9));
+
+            for (int i = 0; i < pages; i++) {
+                PDPage page = document.getPage(i);
+                PDRectangle box = page.getMediaBox();
+                features.add("p" + i + ":size:" + Math.round(box.getWidth()) + "x" + Math.round(box.getHeight()) + "r" + page.getRotation());
+            }
+
+            LabelCollector collector = new LabelCollector();
+            collector.setStartPage(1);
+            collector.setEndPage(pages);
+            collector.getText(document);
+
+            if (collector.labels.size() < MIN_LABELS) {
+                log.debug("Text layer insufficiente per l'impronta di {} ({} etichette)", file.getOriginalFilename(), collector.labels.size());
+                return Optional.empty();
+            }
+            features.addAll(collector.labels);
+
+            return Optional.of(new LayoutFingerprint(sha256(String.join("|", features)), List.copyOf(features)));
+        } catch (IOException e) {
+            log.warn("Impossibile calcolare l'impronta di layout per {}: {}", file.getOriginalFilename(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Template dell'utente con lo stesso layout: prima il match esatto (indicizzato), poi il più simile
+     * sopra soglia tra i template che hanno le feature salvate. Per il confronto si leggono solo id e feature,
+     * il template completo viene caricato solo per quello scelto.
+     */
+    public Optional<PayrollTemplate> findMatchingTemplate(String userId, LayoutFingerprint fingerprint) {
+        Optional<PayrollTemplate> exact = payrollTemplateRepository.findFirstByLayoutFingerprintAndUserId(fingerprint.hash(), userId);
+        if (exact.isPresent()) return exact;
+
+        return payrollTemplateRepository.findLayoutFeaturesByUserId(userId).stream()
+                .map(template -> Map.entry(template, fingerprint.similarity(template.getLayoutFeatures())))
+                .filter(match -> match.getValue() >= minSimilarity)
+                .max(Map.Entry.comparingByValue())
+                .map(match -> {
+                    log.info("Template {} associato per similarità di layout ({})", match.getKey().getId(),
+                            String.format(Locale.ROOT, "%.2f", match.getValue()));
+                    return match.getKey().getId();
+                })
+                .flatMap(payrollTemplateRepository::findById);
+    }
+
+    private String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return VERSION + ":" + HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Raccoglie le parole "statiche" (senza cifre, non nomi di mese) con la posizione quantizzata.
+     */
+    private static final class LabelCollector extends PDFTextStripper {
+
+        private final SortedSet<String> labels = new TreeSet<>();
+
+        LabelCollector() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void writeString(String text, List<TextPosition> textPositions) {
+            String word = text.trim().toUpperCase(Locale.ITALIAN);
+            if (word.isEmpty() || textPositions.isEmpty()) return;
+            if (HAS_DIGIT.matcher(word).find() || !LETTERS.matcher(word).find() || MONTH_NAMES.contains(word)) return;
+
+            TextPosition first = textPositions.get(0);
+            int gridX = Math.round(first.getXDirAdj() / GRID_POINTS);
+            int gridY = Math.round(first.getYDirAdj() / GRID_POINTS);
+            labels.add("p" + (getCurrentPageNo() - 1) + ":" + word + "@" + gridX + "," + gridY);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.model.LightRagOutboxEntry;
+import com.paypeek.backend.repository.LightRagOutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Outbox su MongoDB per l'indicizzazione LightRAG.
+ * <p>
+ * L'upload accoda il markdown con {@link #enqueue(String, String)} (una sola scrittura su Mongo) e
+ * un worker schedulato preleva i documenti uno alla volta, li invia a LightRAG e ritenta con backoff
+ * esponenziale quelli falliti. Il lease di un documento parte quando il suo invio sta per iniziare e deve
+ * superare il timeout delle chiamate a LightRAG ({@code app.lightrag.read-timeout-seconds}). I documenti già visti (stesso hash del contenuto) non vengono riaccodati.
+ */
+@Service
+@Slf4j
+public class LightRagOutboxService {
+
+    private static final List<String> BACKLOG_STATUSES = List.of(LightRagOutboxEntry.PENDING, LightRagOutboxEntry.PROCESSING);
+
+    private final LightRagService lightRagService;
+    private final LightRagOutboxRepository outboxRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final AtomicLong backlog = new AtomicLong();
+
+    public LightRagOutboxService(LightRagService lightRagService,
+                                 LightRagOutboxRepository outboxRepository,
+                                 MongoTemplate mongoTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.lightrag.outbox.batch-size:20}") int batchSize,
+                                 @Value("${app.lightrag.outbox.max-attempts:8}") int maxAttempts,
+                                 @Value("${app.lightrag.outbox.backoff-seconds:10}") long backoffSeconds,
+                                 @Value("${app.lightrag.outbox.max-backoff-seconds:1800}") long maxBackoffSeconds,
+                                 @Value("${app.lightrag.outbox.lease-seconds:300}") long leaseSeconds) {
+        this.lightRagService = lightRagService;
+        this.outboxRepository = outboxRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = Duration.ofSeconds(backoffSeconds);
+        this.maxBackoff = Duration.ofSeconds(maxBackoffSeconds);
+        this.lease = Duration.ofSeconds(leaseSeconds);
+
+        meterRegistry.gauge("paypeek.lightrag.outbox.backlog", backlog);
+    }
+
+    /**
+     * Accoda un documento da indicizzare. Restituisce false se lo stesso contenuto era già in coda o indicizzato.
+     */
+    public boolean enqueue(String title, String content) {
+        if (content == null || content.isBlank()) return false;
+
+        String hash = sha256(content);
+        Instant now = Instant.now();
+        try {
+            boolean inserted = mongoTemplate.upsert(
+                    query(where("contentHash").is(hash)),
+                    new Update()
+                            .setOnInsert("title", title)
+                            .setOnInsert("content", content)
+                            .setOnInsert("status", LightRagOutboxEntry.PENDING)
+                            .setOnInsert("attempts", 0)
+                            .setOnInsert("nextAttemptAt", now)
+                            .setOnInsert("createdAt", now),
+                    LightRagOutboxEntry.class).getUpsertedId() != null;
+            if (inserted) {
+                backlog.incrementAndGet();
+            } else {
+                meterRegistry.counter("paypeek.lightrag.outbox.deduplicated").increment();
+                log.debug("LightRAG: {} già accodato o indicizzato, salto", title);
+            }
+            return inserted;
+        } catch (DuplicateKeyException e) {
+            // Accodamento concorrente dello stesso contenuto: l'altro ha vinto
+            meterRegistry.counter("paypeek.lightrag.outbox.deduplicated").increment();
+            return false;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.lightrag.outbox.poll-ms:5000}",
+            initialDelayString = "${app.lightrag.outbox.poll-ms:5000}")
+    public void drain() {
+        try {
+            // Prelievo e invio uno alla volta: un documento non resta in attesa dietro agli altri con il lease che scorre
+            for (int i = 0; i < batchSize; i++) {
+                LightRagOutboxEntry entry = claimNext();
+                if (entry == null) break;
+                deliver(entry);
+            }
+        } catch (Exception e) {
+            log.error("LightRAG outbox: errore durante lo svuotamento della coda: {}", e.getMessage());
+        } finally {
+            backlog.set(outboxRepository.countByStatusIn(BACKLOG_STATUSES));
+        }
+    }
+
+    /**
+     * Prelievo atomico (findAndModify) del prossimo documento: tra i PENDING scaduti e i PROCESSING
+     * con lease scaduto, ad esempio per un riavvio durante l'invio. Null se non c'è nulla da inviare.
+     */
+    private LightRagOutboxEntry claimNext() {
+        Instant now = Instant.now();
+        Query ready = new Query(new Criteria().orOperator(
+                where("status").is(LightRagOutboxEntry.PENDING).and("nextAttemptAt").lte(now),
+                where("status").is(LightRagOutboxEntry.PROCESSING).and("lockedUntil").lt(now)))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+        Update claim = new Update()
+                .set("status", LightRagOutboxEntry.PROCESSING)
+                .set("lockedUntil", now.plus(lease));
+
+        return mongoTemplate.findAndModify(ready, claim,
+                FindAndModifyOptions.options().returnNew(true), LightRagOutboxEntry.class);
+    }
+
+    private void deliver(LightRagOutboxEntry entry) {
+        try {
+            lightRagService.insert(entry.getTitle(), entry.getContent());
+            mongoTemplate.updateFirst(query(where("_id").is(entry.getId())),
+                    new Update()
+                            .set("status", LightRagOutboxEntry.DONE)
+                            .set("completedAt", Instant.now())
+                            .unset("content")
+                            .unset("lockedUntil")
+                            .unset("lastError"),
+                    LightRagOutboxEntry.class);
+            meterRegistry.counter("paypeek.lightrag.outbox.delivered", "result", "success").increment();
+        } catch (Exception e) {
+            int attempts = entry.getAttempts() + 1;
+            boolean exhausted = attempts >= maxAttempts;
+            Update update = new Update()
+                    .set("attempts", attempts)
+                    .set("lastError", e.getMessage())
+                    .unset("lockedUntil")
+                    .set("status", exhausted ? LightRagOutboxEntry.FAILED : LightRagOutboxEntry.PENDING)
+                    .set("nextAttemptAt", Instant.now().plus(backoff(attempts)));
+            mongoTemplate.updateFirst(query(where("_id").is(entry.getId())), update, LightRagOutboxEntry.class);
+
+            meterRegistry.counter("paypeek.lightrag.outbox.delivered", "result", exhausted ? "failed" : "retry").increment();
+            if (exhausted) {
+                log.error("LightRAG: {} non indicizzato dopo {} tentativi: {}", entry.getTitle(), attempts, e.getMessage());
+            } else {
+                log.warn("LightRAG: invio di {} fallito (tentativo {}/{}): {}", entry.getTitle(), attempts, maxAttempts, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Backoff esponenziale con jitter: base * 2^(tentativi-1), al massimo maxBackoff, ±20%.
+     */
+    private Duration backoff(int attempts) {
+        long millis = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempts - 1, 20));
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+        return Duration.ofMillis((long) (millis * jitter));
+    }
+
+    private static String sha256(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
@@ -1,13 +1,13 @@
 package com.paypeek.backend.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
 import java.util.Map;
 
 @Service
@@ -20,21 +20,20 @@ public class LightRagService {
     private final RestTemplate restTemplate;
 
 
-    public LightRagService(RestTemplateBuilder restTemplateBuilder) {
+    public LightRagService(RestTemplateBuilder restTemplateBuilder,
+                           @Qualifier("lightRagRequestFactory") HttpComponentsClientHttpRequestFactory lightRagRequestFactory) {
         this.restTemplate = restTemplateBuilder
-                .connectTimeout(Duration.ofSeconds(5))
-                .readTimeout(Duration.ofSeconds(300))
+                .requestFactory(() -> lightRagRequestFactory)
                 .build();
     }
 
-    @Async
-    public void sendToLightRagAsync(String title, String content) {
-        try {
-            Map<String, String> payload = Map.of("title", title, "content", content);
-            restTemplate.postForEntity(lightragUrl + "/insert", payload, String.class);
-            log.info("LightRAG: {} indicizzato con successo", title);
-        } catch (Exception e) {
-            log.error("LightRAG Error: {}", e.getMessage());
-        }
+    /**
+     * Indicizzazione sincrona di un documento: usata dal worker dell'outbox ({@link LightRagOutboxService}),
+     * che gestisce retry e backoff. Gli errori vengono propagati al chiamante.
+     */
+    public void insert(String title, String content) {
+        Map<String, String> payload = Map.of("title", title, "content", content);
+        restTemplate.postForEntity(lightragUrl + "/insert", payload, String.class);
+        log.info("LightRAG: {} indicizzato con successo", title);
     }
 }
@@ -146,6 +146,28 @@ public class MinIOService {
         }
     }
 
+    /**
+     * Upload payslip from InputStream with known size: MinIO streams it directly
+     * instead of buffering a full part in memory
+     */
+    public String uploadPayslip(InputStream inputStream, long size, String filename, String contentType) {
+        try {
+            minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(filename)
+                            .stream(inputStream, size, -1)
+                            .contentType(contentType)
+                            .build());
+
+            log.info("Payslip uploaded successfully: {}", filename);
+            return filename;
+        } catch (Exception e) {
+            log.error("Error uploading payslip to MinIO", e);
+            throw new RuntimeException("Error uploading payslip to MinIO: " + e.getMessage());
+        }
+    }
+
     /**
      * Get file as InputStream
      */
@@ -0,0 +1,154 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.IngestedFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.Tesseract;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * OCR locale con Tesseract, usato quando l'estrattore remoto non risponde.
+ * Le istanze Tesseract non sono thread-safe e costose da inizializzare: ne teniamo un pool fisso
+ * e ogni pagina, renderizzata in parallelo con PDFBox, ne prende in prestito una.
+ */
+@Service
+@Slf4j
+public class OcrService {
+
+    @Value("${tesseract.datapath}")
+    private String datapath;
+
+    @Value("${app.ocr.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ocr.pool-size:2}")
+    private int poolSize;
+
+    @Value("${app.ocr.language:ita}")
+    private String language;
+
+    @Value("${app.ocr.dpi:300}")
+    private float dpi;
+
+    private final Timer pageTimer;
+    private BlockingQueue<Tesseract> pool;
+    private ExecutorService pageExecutor;
+
+    public OcrService(MeterRegistry meterRegistry) {
+        this.pageTimer = Timer.builder("paypeek.ocr.page")
+                .description("Render + OCR di una singola pagina")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) return;
+
+        pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            Tesseract tesseract = new Tesseract();
+            tesseract.setDatapath(datapath);
+            tesseract.setLanguage(language);
+            pool.add(tesseract);
+        }
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        pageExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "ocr-page-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("OCR locale attivo: {} istanze Tesseract ({}), datapath {}", poolSize, language, datapath);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pageExecutor != null) pageExecutor.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Testo del documento, pagina per pagina nell'ordine originale. Vuoto se l'OCR è disattivato o fallisce.
+     */
+    public Optional<String> recognize(IngestedFile file) {
+        if (!enabled) return Optional.empty();
+
+        int pages;
+        try (PDDocument document = file.loadPdf()) {
+            pages = document.getNumberOfPages();
+        } catch (Exception e) {
+            log.warn("OCR: PDF non leggibile {}: {}", file.getOriginalFilename(), e.getMessage());
+            return Optional.empty();
+        }
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < pages; i++) {
+            int pageIndex = i;
+            futures.add(CompletableFuture.supplyAsync(() -> recognizePage(file, pageIndex), pageExecutor));
+        }
+
+        try {
+            String text = futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.joining("\n\n"));
+            return text.isBlank() ? Optional.empty() : Optional.of(text);
+        } catch (CompletionException e) {
+            log.error("OCR locale fallito per {}: {}", file.getOriginalFilename(), e.getCause().toString());
+            return Optional.empty();
+        }
+    }
+
+    private String recognizePage(IngestedFile file, int pageIndex) {
+        return pageTimer.record(() -> {
+            // Ogni pagina apre il proprio PDDocument: PDFBox non è thread-safe sullo stesso documento
+            BufferedImage image;
+            try (PDDocument document = file.loadPdf()) {
+                image = new PDFRenderer(document).renderImageWithDPI(pageIndex, dpi, ImageType.GRAY);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+
+            Tesseract tesseract = borrow();
+            try {
+                return tesseract.doOCR(image);
+            } catch (Exception | LinkageError e) { // LinkageError: libreria nativa tesseract assente
+                throw new CompletionException(e);
+            } finally {
+                pool.add(tesseract);
+            }
+        });
+    }
+
+    private Tesseract borrow() {
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+}
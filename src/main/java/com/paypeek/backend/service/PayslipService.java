@@ -5,22 +5,50 @@ import com.paypeek.backend.dto.FileItemDto;
 import com.paypeek.backend.dto.MassUploadResponseDto;
 import com.paypeek.backend.dto.mapper.YearFolderMapper;
 import com.paypeek.backend.dto.PayslipResponseDto;
+import com.paypeek.backend.dto.YearFolderDto;
+import com.paypeek.backend.exception.ExtractorUnavailableException;
+import com.paypeek.backend.exception.InvalidFileException;
+import com.paypeek.backend.exception.ResourceNotFoundException;
 import com.paypeek.backend.model.*;
 import com.paypeek.backend.repository.PayrollTemplateRepository;
 import com.paypeek.backend.repository.PayslipRepository;
 import com.paypeek.backend.repository.UserRepository;
 import com.paypeek.backend.repository.YearFolderRepository;
+import com.paypeek.backend.util.ExtractionResult;
+import com.paypeek.backend.util.FairTaskExecutor;
+import com.paypeek.backend.util.IngestedFile;
+import com.paypeek.backend.util.LayoutFingerprint;
+import com.paypeek.backend.util.PayslipPeriod;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
-import java.security.MessageDigest;
+import java.io.InputStream;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.time.Month;
-import java.time.format.TextStyle;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @Service
 @Slf4j
@@ -32,25 +60,92 @@ public class PayslipService {
     private final YearFolderRepository yearFolderRepository;
     private final UserRepository userRepository;
     private final YearFolderMapper yearFolderMapper;
+    private final YearFolderService yearFolderService;
     private final AIService aiService;
-    private final LightRagService lightRagService;
+    private final LightRagOutboxService lightRagOutboxService;
+    private final IngestionService ingestionService;
+    private final ExtractionCacheService extractionCacheService;
+    private final LayoutFingerprintService layoutFingerprintService;
+    private final TemplateExtractionEngine templateExtractionEngine;
+    private final OcrService ocrService;
+    private final TemplatePatternCache templatePatternCache;
+    private final RegexSafetyService regexSafetyService;
+    private final ExtractionBatcher extractionBatcher;
+    private final ExtractionHedger extractionHedger;
+    private final UploadQuotaService uploadQuotaService;
+    private final boolean batchExtraction;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int uploadParallelism;
+    private final FairTaskExecutor uploadExecutor;
+    private final ExecutorService processingExecutor;
+    private final Instant startedAt = Instant.now();
 
     public PayslipService(MinIOService minIOService,
                           YearFolderRepository yearFolderRepository,
                           UserRepository userRepository,
                           YearFolderMapper yearFolderMapper,
+                          YearFolderService yearFolderService,
                           PayrollTemplateRepository payrollTemplateRepository,
                           PayslipRepository payslipRepository,
                           AIService aiService,
-                          LightRagService lightRagService) {
+                          LightRagOutboxService lightRagOutboxService,
+                          IngestionService ingestionService,
+                          ExtractionCacheService extractionCacheService,
+                          LayoutFingerprintService layoutFingerprintService,
+                          TemplateExtractionEngine templateExtractionEngine,
+                          OcrService ocrService,
+                          TemplatePatternCache templatePatternCache,
+                          RegexSafetyService regexSafetyService,
+                          ExtractionBatcher extractionBatcher,
+                          ExtractionHedger extractionHedger,
+                          UploadQuotaService uploadQuotaService,
+                          @Value("${app.extraction.batch.enabled:false}") boolean batchExtraction,
+                          MongoTemplate mongoTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.upload.parallelism:4}") int uploadParallelism,
+                          @Value("${app.upload.processing-threads:2}") int processingThreads) {
         this.minIOService = minIOService;
         this.yearFolderRepository = yearFolderRepository;
         this.userRepository = userRepository;
         this.yearFolderMapper = yearFolderMapper;
+        this.yearFolderService = yearFolderService;
         this.payrollTemplateRepository = payrollTemplateRepository;
         this.payslipRepository = payslipRepository;
         this.aiService = aiService;
-        this.lightRagService = lightRagService;
+        this.lightRagOutboxService = lightRagOutboxService;
+        this.ingestionService = ingestionService;
+        this.extractionCacheService = extractionCacheService;
+        this.layoutFingerprintService = layoutFingerprintService;
+        this.templateExtractionEngine = templateExtractionEngine;
+        this.ocrService = ocrService;
+        this.templatePatternCache = templatePatternCache;
+        this.regexSafetyService = regexSafetyService;
+        this.extractionBatcher = extractionBatcher;
+        this.extractionHedger = extractionHedger;
+        this.uploadQuotaService = uploadQuotaService;
+        this.batchExtraction = batchExtraction;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.uploadParallelism = uploadParallelism;
+
+        // Code per utente servite a turno: il mass upload di un utente non fa attendere i file degli altri
+        this.uploadExecutor = new FairTaskExecutor("payslip-upload-", uploadParallelism);
+        meterRegistry.gauge("paypeek.upload.queue.depth", uploadExecutor, FairTaskExecutor::queued);
+
+        // Stadio in background dell'upload singolo (estrazione + LightRAG)
+        AtomicInteger processingCounter = new AtomicInteger();
+        this.processingExecutor = Executors.newFixedThreadPool(processingThreads, runnable -> {
+            Thread thread = new Thread(runnable, "payslip-processing-" + processingCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdown();
+        processingExecutor.shutdown();
     }
 
 
@@ -60,250 +155,621 @@ public class PayslipService {
     public Payslip buildPayslipTemplate(MultipartFile file) {
         User user = getCurrentUser(); // Recupera l'utente
         log.info("Inizio buildPayslipTemplate per utente: {} - file: {}", user.getEmail(), file.getOriginalFilename());
+        UploadQuotaService.UploadCharge charge = uploadQuotaService.checkUpload(user, List.of(file));
+
+        ExtractionResult response;
+        LayoutFingerprint layout;
+        try (IngestedFile ingested = ingestionService.ingest(file)) {
+            layout = layoutFingerprintService.fingerprint(ingested).orElse(null);
+            response = extractionCacheService.get(user.getId(), ingested.getSha256(), cached -> cached.signature() != null)
+                    .orElseGet(() -> {
+                        ExtractionResult extracted = aiService.extract(ingested, user.getId(), ExtractionPriority.INTERACTIVE);
+                        if (extracted != null && extracted.signature() != null) {
+                            extractionCacheService.put(user.getId(), ingested.getSha256(), extracted);
+                        }
+                        return extracted;
+                    });
+        } catch (InvalidFileException | ExtractorUnavailableException e) {
+            // File illeggibile o estrattore non disponibile: nessun template creato, la quota non si consuma
+            charge.refund();
+            throw e;
+        }
 
-        Map<String, Object> response = aiService.callPythonExtractor(file);
-
-        if (response == null || !response.containsKey("signature")) {
+        if (response == null || response.signature() == null) {
             throw new RuntimeException("L'estrattore non ha restituito dati validi");
         }
 
-        String signature = (String) response.get("signature");
-        String nomeAzienda = (String) response.get("azienda");
+        String signature = response.signature();
+        String nomeAzienda = response.azienda();
 
-        // Cerchiamo un template che abbia STESSA signature E STESSO userId
-        PayrollTemplate template = payrollTemplateRepository.findBySignatureAndUserId(signature, user.getId())
+        // Cerchiamo un template dello STESSO userId con lo stesso layout o la STESSA signature
+        PayrollTemplate template = findTemplate(user.getId(), layout, signature)
                 .orElseGet(() -> {
                     log.info("Creazione nuovo template per utente {} con signature {}.", user.getId(), signature);
-                    Map<String, String> regexPatterns = (Map<String, String>) response.get("regex");
+                    Map<String, String> regexPatterns = response.regex();
 
-                    return payrollTemplateRepository.save(PayrollTemplate.builder()
+                    PayrollTemplate newTemplate = PayrollTemplate.builder()
                             .name("Template " + nomeAzienda)
                             .signature(signature)
                             .userId(user.getId()) // <--- Associamo l'utente
+                            .layoutFingerprint(layout != null ? layout.hash() : null)
+                            .layoutFeatures(layout != null ? layout.features() : null)
                             .regexPatterns(regexPatterns)
-                            .build());
+                            .build();
+                    regexSafetyService.validate(newTemplate);
+                    return payrollTemplateRepository.save(newTemplate);
                 });
 
-        Map<String, Object> extractedData = (Map<String, Object>) response.get("extracted_data");
+        templatePatternCache.warm(template);
+
+        Map<String, Object> extractedData = response.extractedData();
 
         // Salviamo la Payslip
         Payslip payslip = Payslip.builder()
+                .userId(user.getId())
                 .templateId(template.getId())
                 .fileName(file.getOriginalFilename())
                 .extractedData(extractedData)
+                .year(PayslipPeriod.year(extractedData).orElse(null))
+                .month(PayslipPeriod.month(extractedData).orElse(null))
                 .build();
 
         return payslipRepository.save(payslip);
     }
 
     /**
-     * UPLOAD SINGOLO: Carica in una cartella specifica (ID mese fornito dal FE)
+     * UPLOAD SINGOLO: Carica in una cartella specifica (ID mese fornito dal FE).
+     * Il file viene salvato su MinIO e registrato subito con stato PENDING; estrazione e indicizzazione
+     * LightRAG proseguono in background e il FE ne segue l'avanzamento con {@link #getFileItem(String)}.
      */
     public FileItemDto uploadFile(String monthFolderId, MultipartFile file) {
         User user = getCurrentUser();
+        UploadQuotaService.UploadCharge charge = uploadQuotaService.checkUpload(user, List.of(file));
+
+        IngestedFile ingested;
+        FileItem fileItem;
+        try {
+            ingested = ingestionService.ingest(file);
+        } catch (RuntimeException e) {
+            charge.refund();
+            throw e;
+        }
+        try {
+            fileItem = storeFile(user, monthFolderId, ingested);
+        } catch (RuntimeException e) {
+            // Mese inesistente o storage non disponibile: il file non è stato accettato
+            ingested.close();
+            charge.refund();
+            throw e;
+        }
 
-        // 1. Estrazione testo per LightRAG
-        String markdown = aiService.extractMarkdown(file);
+        try {
+            // Da qui il file appartiene allo stadio in background, che lo chiude a fine elaborazione
+            processingExecutor.execute(() -> {
+                try {
+                    processUploadedFile(user, fileItem, ingested);
+                } finally {
+                    ingested.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ingested.close();
+            updateFileState(user.getId(), fileItem.getId(), FileItem.FAILED, "Elaborazione non avviata: applicazione in arresto");
+            fileItem.setProcessingState(FileItem.FAILED);
+        }
 
-        if(markdown == null)
-            throw new NullPointerException("Estrazione dati fallita");
+        return yearFolderMapper.toDto(fileItem);
+    }
+
+    private FileItem storeFile(User user, String monthFolderId, IngestedFile file) {
+        // 1. Ricerca indicizzata della cartella di destinazione (solo l'id, senza mesi e file),
+        // prima di MinIO per non lasciare oggetti orfani su un mese inesistente
+        if (yearFolderRepository.findIdByUserIdAndMonthId(user.getId(), monthFolderId).isEmpty()) {
+            throw new ResourceNotFoundException("MonthFolder", "id", monthFolderId);
+        }
 
         // 2. Upload su MinIO
         String minioFilename = uploadToMinio(file, String.valueOf(user.getId()));
 
-        // 3. Ricerca della cartella di destinazione su MongoDB
-        YearFolder yearFolder = yearFolderRepository.findAll().stream()
-                .filter(yf -> yf.getUserId().equals(user.getId()))
-                .filter(yf -> yf.getMonths().stream().anyMatch(m -> m.getId().equals(monthFolderId)))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Cartella Anno non trovata per il mese: " + monthFolderId));
+        // 3. Creazione FileItem, i dati arrivano con l'elaborazione in background
+        FileItem fileItem = buildFileItem(file, minioFilename);
+        fileItem.setProcessingState(FileItem.PENDING);
+        yearFolderService.addFileToMonth(user.getId(), monthFolderId, fileItem);
+        return fileItem;
+    }
 
-        MonthFolder monthFolder = yearFolder.getMonths().stream()
-                .filter(m -> m.getId().equals(monthFolderId))
-                .findFirst().orElseThrow();
+    /**
+     * Stadio in background dell'upload singolo: estrazione unica (dalla cache se il file è già stato
+     * estratto), dati sul FileItem e invio del markdown a LightRAG.
+     */
+    private void processUploadedFile(User user, FileItem fileItem, IngestedFile file) {
+        String fileName = file.getOriginalFilename();
+        try {
+            updateFileState(user.getId(), fileItem.getId(), FileItem.PROCESSING, null);
+
+            ExtractionResult extraction = extractionCacheService.get(user.getId(), file.getSha256(), ExtractionResult::hasMarkdown)
+                    .orElseGet(() -> {
+                        ExtractionResult extracted;
+                        try {
+                            extracted = aiService.extract(file, user.getId(), ExtractionPriority.INTERACTIVE);
+                        } catch (ExtractorUnavailableException e) {
+                            // Estrattore non disponibile: il testo OCR locale basta per l'indicizzazione
+                            return ocrService.recognize(file)
+                                    .map(text -> new ExtractionResult(text, null, null, null, null, "ocr"))
+                                    .orElseThrow(() -> e);
+                        }
+                        if (extracted != null && extracted.hasMarkdown()) {
+                            extractionCacheService.put(user.getId(), file.getSha256(), extracted);
+                        }
+                        return extracted;
+                    });
+
+            if (extraction == null || !extraction.hasMarkdown()) {
+                updateFileState(user.getId(), fileItem.getId(), FileItem.FAILED, "Estrazione dati fallita");
+                return;
+            }
 
-        // 4. Creazione FileItem
-        FileItem fileItem = buildFileItem(file, minioFilename);
-        monthFolder.getFiles().add(fileItem);
-        yearFolderRepository.save(yearFolder);
+            Update update = new Update();
+            if (extraction.hasData()) {
+                // Il file resta nel mese scelto dall'utente: anno/mese riportano solo il periodo del cedolino
+                int anno = PayslipPeriod.year(extraction.extractedData()).orElse(0);
+                int mese = PayslipPeriod.month(extraction.extractedData()).orElse(0);
+                if (anno != 0 && mese != 0 && (anno != fileItem.getYear() || mese != fileItem.getMonth())) {
+                    log.warn("Il cedolino {} è di {}/{} ma è stato caricato nella cartella {}/{}",
+                            fileName, mese, anno, fileItem.getMonth(), fileItem.getYear());
+                }
+                update.set("dati", extraction.extractedData())
+                        .set("anno", anno)
+                        .set("mese", mese);
+            }
+            updateFile(user.getId(), fileItem.getId(), update
+                    .set("processingState", FileItem.READY)
+                    .unset("processingError"));
 
-        // 5. Pipeline AI asincrona
-        if (markdown != null) {
-            lightRagService.sendToLightRagAsync(file.getOriginalFilename(), markdown);
+            lightRagOutboxService.enqueue(fileName, extraction.markdown());
+        } catch (Exception e) {
+            log.error("Elaborazione in background fallita per {}: {}", fileName, e.getMessage());
+            updateFileState(user.getId(), fileItem.getId(), FileItem.FAILED, e.getMessage());
         }
+    }
 
-        return yearFolderMapper.toDto(fileItem);
+    /**
+     * Stato di un file caricato dall'utente corrente (polling dell'elaborazione in background).
+     */
+    public FileItemDto getFileItem(String fileId) {
+        User user = getCurrentUser();
+        return Optional.ofNullable(mongoTemplate.findOne(
+                        query(where("_id").is(fileId).and("userId").is(user.getId())), FileItem.class))
+                .map(yearFolderMapper::toDto)
+                .orElseThrow(() -> new ResourceNotFoundException("FileItem", "id", fileId));
+    }
+
+    /**
+     * Cartelle anno/mese dell'utente corrente con i relativi file: due query indicizzate (cartelle e file_items
+     * per userId), i file vengono poi distribuiti nei mesi dal mapper.
+     */
+    public List<YearFolderDto> getFolders() {
+        User user = getCurrentUser();
+        Map<Integer, List<FileItem>> filesByYear = mongoTemplate.find(query(where("userId").is(user.getId())), FileItem.class)
+                .stream()
+                .collect(Collectors.groupingBy(FileItem::getYear));
+        return yearFolderRepository.findByUserIdOrderByYearDesc(user.getId()).stream()
+                .map(folder -> yearFolderMapper.toDto(folder, filesByYear.getOrDefault(folder.getYear(), List.of())))
+                .toList();
+    }
+
+    private void updateFileState(String userId, String fileId, String state, String error) {
+        Update update = new Update().set("processingState", state);
+        if (error != null) {
+            update.set("processingError", error);
+        }
+        try {
+            updateFile(userId, fileId, update);
+        } catch (Exception e) {
+            log.warn("Impossibile aggiornare lo stato del file {}: {}", fileId, e.getMessage());
+        }
     }
 
     /**
-     * MASS UPLOAD: Rileva automaticamente se usare Template (Regex) o AI Vision pura
+     * Aggiornamento atomico del solo FileItem indicato, vincolato all'utente proprietario.
+     */
+    private void updateFile(String userId, String fileId, Update update) {
+        mongoTemplate.updateFirst(
+                query(where("_id").is(fileId).and("userId").is(userId)),
+                update,
+                FileItem.class);
+    }
+
+    /**
+     * I file in elaborazione vivono solo in memoria: dopo un riavvio non possono essere ripresi,
+     * quindi li segniamo come falliti invece di lasciarli PENDING per sempre.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedUploads() {
+        Update update = new Update()
+                .set("processingState", FileItem.FAILED)
+                .set("processingError", "Elaborazione interrotta dal riavvio del server");
+        long updated = mongoTemplate.updateMulti(
+                query(where("processingState").in(FileItem.PENDING, FileItem.PROCESSING).and("uploadDate").lt(startedAt)),
+                update, FileItem.class).getModifiedCount();
+        if (updated > 0) {
+            log.warn("{} upload interrotti dal riavvio, file segnati come FAILED", updated);
+        }
+    }
+
+    /**
+     * MASS UPLOAD: Rileva automaticamente se usare Template (Regex) o AI Vision pura.
+     * I file vengono elaborati in parallelo (max {@code app.upload.parallelism}), mentre l'aggiornamento
+     * delle cartelle avviene in sequenza e i risultati mantengono l'ordine di input.
      */
     public List<PayslipResponseDto> massUpload(List<MultipartFile> files) {
         User user = getCurrentUser();
+
+        try (UploadQuotaService.UploadAdmission admission = uploadQuotaService.admitUpload(user, files)) {
+            List<IngestedFile> ingested;
+            try {
+                ingested = ingestionService.ingestAll(files);
+            } catch (RuntimeException e) {
+                admission.refund();
+                throw e;
+            }
+            try {
+                return massUpload(user, ingested, (index, result) -> { });
+            } finally {
+                ingested.forEach(IngestedFile::close);
+            }
+        }
+    }
+
+    /**
+     * Variante usata anche dai job asincroni: {@code onFileProcessed} riceve l'indice del file e il suo esito
+     * non appena il file è stato completamente elaborato (sempre in ordine di input).
+     * La chiusura dei file resta a carico del chiamante.
+     */
+    public List<PayslipResponseDto> massUpload(User user, List<IngestedFile> files,
+                                               BiConsumer<Integer, PayslipResponseDto> onFileProcessed) {
+        long start = System.nanoTime();
+        Executor executor = task -> uploadExecutor.execute(user.getId(), task);
+
+        // Stadio 1 (parallelo): template, estrazione, MinIO e salvataggio Payslip.
+        // Con il batching l'attesa dell'estrattore non occupa un thread di upload: tutti i file entrano nel
+        // batcher prima che un batch venga atteso, e i batch si riempiono fino a app.extraction.batch.size
+        List<CompletableFuture<ProcessedPayslip>> futures = files.stream()
+                .map(file -> processPayslip(user, file, executor))
+                .toList();
+
+        // Stadio 2: organizzazione cartelle, nello stesso ordine dei file ricevuti
         List<PayslipResponseDto> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            ProcessedPayslip processed = futures.get(i).join();
+            if (processed.fileItem() != null) {
+                attachToFolder(user, processed);
+            }
+            results.add(processed.response());
+            onFileProcessed.accept(i, processed.response());
+        }
 
-        for (MultipartFile file : files) {
-            String fileName = file.getOriginalFilename();
+        log.info("Mass upload di {} file completato in {} ms (parallelismo {})",
+                files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), uploadParallelism);
+        return results;
+    }
 
-            // Inizializziamo il DTO per il file corrente con una lista errori vuota
-            PayslipResponseDto response = PayslipResponseDto.builder()
-                    .extractionErrors(new ArrayList<>())
-                    .build();
+    /**
+     * Elabora un singolo file del mass upload sui thread di {@code executor}.
+     * Il future non fallisce mai: gli errori finiscono nel DTO di risposta.
+     */
+    private CompletableFuture<ProcessedPayslip> processPayslip(User user, IngestedFile file, Executor executor) {
+        String fileName = file.getOriginalFilename();
+        StageTimer timer = new StageTimer();
 
-            try {
-                // 1. Calcolo Signature locale
-                String signature = calculateSHA256(file);
-                response.setSignature(signature);
-
-                // 2. Controllo esistenza Template
-                Optional<PayrollTemplate> templateOpt = payrollTemplateRepository.findBySignatureAndUserId(signature, user.getId());
-
-                Map<String, Object> aiResponse;
-                if (templateOpt.isPresent()) {
-                    log.info("Documento noto. Uso estrazione guidata per: {}", fileName);
-                    aiResponse = aiService.callPythonWithTemplate(file, templateOpt.get().getRegexPatterns());
-                } else {
-                    log.info("Documento nuovo. Uso AI Vision generica per: {}", fileName);
-                    aiResponse = aiService.callPythonExtractor(file);
-                }
+        // Inizializziamo il DTO per il file corrente con una lista errori vuota
+        PayslipResponseDto response = PayslipResponseDto.builder()
+                .extractionErrors(new ArrayList<>())
+                .build();
 
-                // Estrazione dati
-                Map<String, Object> extractedData = (Map<String, Object>) aiResponse.get("extractedData");
+        return CompletableFuture.supplyAsync(() -> {
+                    timer.lap("queue");
+                    Optional<PayrollTemplate> templateOpt = resolveTemplate(user, file, response);
+                    timer.lap("template");
+                    return templateOpt;
+                }, executor)
+                .thenCompose(templateOpt -> extractPayslip(user, file, templateOpt, executor)
+                        .thenApply(extraction -> {
+                            timer.lap("extract");
+                            return storePayslip(user, file, templateOpt, extraction, response, timer);
+                        }))
+                .exceptionally(error -> failedPayslip(fileName, response, unwrap(error)))
+                .whenComplete((processed, error) -> log.debug("Tempi elaborazione {}: {}", fileName, timer));
+    }
 
-                // --- GESTIONE ERRORE ESTRAZIONE (AI fallita o dati nulli) ---
-                if (extractedData == null) {
-                    log.error("L'estrattore non ha restituito dati validi per {}", fileName);
+    private Optional<PayrollTemplate> resolveTemplate(User user, IngestedFile file, PayslipResponseDto response) {
+        // 1. Signature locale (SHA-256 già calcolato in fase di lettura)
+        String signature = file.getSha256();
+        response.setSignature(signature);
 
-                    response.getExtractionErrors().add(ErrorResponseDto.builder()
-                            .type("EXTRACTION_ERROR")
-                            .statusCode(422)
-                            .message("L'intelligenza artificiale non ha rilevato dati validi nel file: " + fileName)
-                            .path(fileName)
-                            .timestamp(Instant.now())
-                            .build());
+        // 2. Controllo esistenza Template: per impronta del layout, poi per signature esatta
+        LayoutFingerprint layout = layoutFingerprintService.fingerprint(file).orElse(null);
+        if (layout != null) {
+            response.setLayoutFingerprint(layout.hash());
+            response.setLayoutFeatures(layout.features());
+        }
+        return findTemplate(user.getId(), layout, signature);
+    }
 
-                    results.add(response);
-                    continue; // Passa al file successivo senza salvare nulla
-                }
+    private ProcessedPayslip storePayslip(User user, IngestedFile file, Optional<PayrollTemplate> templateOpt,
+                                          ExtractionResult extraction, PayslipResponseDto response, StageTimer timer) {
+        String fileName = file.getOriginalFilename();
 
-                // 3. Determinazione Anno e Mese
-                int year = parseYear(extractedData, fileName);
-                int month = parseMonth(extractedData);
-
-                // 4. Upload Fisico su MinIO
-                String minioUrl = uploadToMinio(file, user.getId());
-
-                // 5. Salvataggio record Payslip su MongoDB
-                Payslip payslip = Payslip.builder()
-                        .userId(user.getId())
-                        .templateId(templateOpt.map(PayrollTemplate::getId).orElse("AUTO_GENERATED"))
-                        .fileName(fileName)
-                        .extractedData(extractedData)
-                        .build();
-                payslipRepository.save(payslip);
-
-                // 6. Organizzazione Folder MongoDB (UI "stile cartelle")
-                YearFolder yearFolder = getOrCreateYearFolder(user.getId(), year);
-                MonthFolder monthFolder = getOrCreateMonthFolder(yearFolder, month);
-
-                FileItem fileItem = FileItem.builder()
-                        .id(UUID.randomUUID().toString())
-                        .name(fileName)
-                        .url(minioUrl)
-                        .type("pdf")
-                        .size(file.getSize())
-                        .uploadDate(Instant.now())
-                        .anno(year)
-                        .mese(month)
-                        .dati(extractedData)
-                        .build();
-
-                monthFolder.getFiles().add(fileItem);
-                yearFolderRepository.save(yearFolder);
-
-                // 7. Popolamento DTO di risposta (Successo)
-                response.setAzienda((String) aiResponse.getOrDefault("azienda", "Sconosciuta"));
-                response.setRegex((Map<String, String>) aiResponse.get("regex"));
-                response.setExtractedData(extractedData);
-
-            } catch (Exception e) {
-                log.error("Errore critico durante l'elaborazione di {}: {}", fileName, e.getMessage());
-
-                // Aggiungiamo l'errore tecnico alla lista del DTO
-                response.getExtractionErrors().add(ErrorResponseDto.builder()
-                        .type("PROCESS_ERROR")
-                        .statusCode(500)
-                        .message("Errore durante l'elaborazione di " + fileName + ": " + e.getMessage())
-                        .path(fileName)
-                        .timestamp(Instant.now())
-                        .build());
-            }
+        // Estrazione dati
+        Map<String, Object> extractedData = extraction != null ? extraction.extractedData() : null;
 
-            results.add(response);
+        // --- GESTIONE ERRORE ESTRAZIONE (AI fallita o dati nulli) ---
+        if (extractedData == null) {
+            log.error("L'estrattore non ha restituito dati validi per {}", fileName);
+
+            response.getExtractionErrors().add(ErrorResponseDto.builder()
+                    .type("EXTRACTION_ERROR")
+                    .statusCode(422)
+                    .message("L'intelligenza artificiale non ha rilevato dati validi nel file: " + fileName)
+                    .path(fileName)
+                    .timestamp(Instant.now())
+                    .build());
+
+            return new ProcessedPayslip(response, null, 0, 0); // Nessun salvataggio per questo file
         }
-        return results;
+
+        // 3. Determinazione Anno e Mese
+        int year = parseYear(extractedData, fileName);
+        int month = parseMonth(extractedData);
+
+        // 4. Upload Fisico su MinIO
+        String minioUrl = uploadToMinio(file, user.getId());
+        timer.lap("storage");
+
+        // 5. Salvataggio record Payslip su MongoDB
+        Payslip payslip = Payslip.builder()
+                .userId(user.getId())
+                .templateId(templateOpt.map(PayrollTemplate::getId).orElse("AUTO_GENERATED"))
+                .fileName(fileName)
+                .extractedData(extractedData)
+                .year(PayslipPeriod.year(extractedData).orElse(null))
+                .month(PayslipPeriod.month(extractedData).orElse(null))
+                .build();
+        payslipRepository.save(payslip);
+        timer.lap("persist");
+
+        FileItem fileItem = buildFileItem(file, minioUrl);
+        fileItem.setAnno(PayslipPeriod.year(extractedData).orElse(0));
+        fileItem.setMese(PayslipPeriod.month(extractedData).orElse(0));
+        fileItem.setDati(extractedData);
+        fileItem.setProcessingState(FileItem.READY);
+
+        // 6. Popolamento DTO di risposta (Successo)
+        response.setAzienda(extraction.azienda() != null ? extraction.azienda() : "Sconosciuta");
+        response.setRegex(extraction.regex());
+        response.setExtractedData(extractedData);
+
+        return new ProcessedPayslip(response, fileItem, year, month);
     }
 
-    // --- UTILS ---
+    private ProcessedPayslip failedPayslip(String fileName, PayslipResponseDto response, Throwable error) {
+        if (error instanceof ExtractorUnavailableException e) {
+            log.warn("Estrattore non disponibile per {} ({}): {}", fileName, e.getReason(), e.getMessage());
+
+            response.getExtractionErrors().add(ErrorResponseDto.builder()
+                    .type("EXTRACTION_ERROR")
+                    .statusCode(503)
+                    .message("Servizio di estrazione momentaneamente non disponibile per il file: " + fileName)
+                    .path(fileName)
+                    .timestamp(Instant.now())
+                    .build());
+        } else {
+            log.error("Errore critico durante l'elaborazione di {}: {}", fileName, error.getMessage());
+
+            // Aggiungiamo l'errore tecnico alla lista del DTO
+            response.getExtractionErrors().add(processError(fileName, error));
+        }
+        return new ProcessedPayslip(response, null, 0, 0);
+    }
+
+    /**
+     * Estrazione dei dati: cache, poi regex del template applicate in JVM, e solo se serve
+     * l'estrattore Python (guidato dal template se noto, AI Vision altrimenti).
+     */
+    private CompletableFuture<ExtractionResult> extractPayslip(User user, IngestedFile file,
+                                                               Optional<PayrollTemplate> templateOpt, Executor executor) {
+        String fileName = file.getOriginalFilename();
+
+        // Hit solo se i dati sono stati estratti con lo stesso template, nella versione attuale
+        Optional<ExtractionResult> cached = extractionCacheService.getData(user.getId(), file.getSha256(), templateOpt.orElse(null));
+        if (cached.isPresent()) {
+            log.info("Documento già estratto in precedenza, uso il risultato in cache per: {}", fileName);
+            return CompletableFuture.completedFuture(cached.get());
+        }
+
+        if (templateOpt.isEmpty()) {
+            log.info("Documento nuovo. Uso AI Vision generica per: {}", fileName);
+            return remoteExtract(user, file, null, executor)
+                    .thenApply(result -> cacheIfValid(user, file, null, result));
+        }
 
-    private String calculateSHA256(MultipartFile file) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(file.getBytes());
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+        PayrollTemplate template = templateOpt.get();
+        Optional<ExtractionResult> local = templateExtractionEngine.extract(file, template);
+        if (local.isPresent()) {
+            log.info("Documento noto. Estrazione locale con le regex del template per: {}", fileName);
+            return CompletableFuture.completedFuture(local.get());
         }
-        return hexString.toString();
+
+        log.info("Documento noto. Uso estrazione guidata per: {}", fileName);
+        return guidedExtract(user, file, template, executor)
+                .thenApply(result -> cacheIfValid(user, file, template, result))
+                .exceptionally(error -> {
+                    if (!(unwrap(error) instanceof ExtractorUnavailableException e)) {
+                        throw asCompletionException(error);
+                    }
+                    // Estrattore non disponibile: con un template noto proviamo OCR locale + regex in JVM
+                    log.warn("Estrattore non disponibile per {}, provo OCR locale", fileName);
+                    return ocrService.recognize(file)
+                            .flatMap(text -> templateExtractionEngine.extractFromText(text, template, fileName))
+                            .orElseThrow(() -> e);
+                });
     }
 
-    private int parseYear(Map<String, Object> data, String filename) {
+    private CompletableFuture<ExtractionResult> guidedExtract(User user, IngestedFile file, PayrollTemplate template,
+                                                              Executor executor) {
+        if (batchExtraction) {
+            // Niente hedging con il batching (vedi ExtractionHedger): il file attende il proprio batch
+            // senza bloccare un thread di upload
+            return remoteExtract(user, file, template, executor);
+        }
+        // Se il template è lento o non trova dati, AI Vision corre in parallelo (vedi ExtractionHedger)
+        return completed(() -> extractionHedger.extract(
+                () -> callExtractor(user, file, template),
+                () -> callExtractor(user, file, null)));
+    }
+
+    /**
+     * Chiamata all'estrattore Python: diretta, oppure accodata in un batch con gli altri file dello
+     * stesso utente e template quando {@code app.extraction.batch.enabled} è attivo. Nel secondo caso
+     * il future si completa sui thread di {@code executor}, non su quelli del batcher.
+     */
+    private CompletableFuture<ExtractionResult> remoteExtract(User user, IngestedFile file, PayrollTemplate template,
+                                                              Executor executor) {
+        if (!batchExtraction) {
+            return completed(() -> callExtractor(user, file, template));
+        }
+
+        String group = template != null ? template.getId() : "vision";
+        return extractionBatcher
+                .submit(user.getId(), group, file, template != null ? template.getRegexPatterns() : null)
+                .handleAsync((data, error) -> {
+                    if (error != null) {
+                        throw asCompletionException(error);
+                    }
+                    return ExtractionResult.from(data);
+                }, executor);
+    }
+
+    private ExtractionResult callExtractor(User user, IngestedFile file, PayrollTemplate template) {
+        return template != null
+                ? aiService.callPythonWithTemplate(file, template.getRegexPatterns(), user.getId(), ExtractionPriority.BULK)
+                : aiService.extract(file, user.getId(), ExtractionPriority.BULK);
+    }
+
+    private ExtractionResult cacheIfValid(User user, IngestedFile file, PayrollTemplate template, ExtractionResult result) {
+        if (result != null && result.hasData()) {
+            extractionCacheService.put(user.getId(), file.getSha256(), result, template);
+        }
+        return result;
+    }
+
+    /**
+     * Organizzazione Folder MongoDB (UI "stile cartelle") con update atomici su cartella anno e mese.
+     */
+    private void attachToFolder(User user, ProcessedPayslip processed) {
+        String fileName = processed.fileItem().getName();
+        StageTimer timer = new StageTimer();
         try {
-            // Navigazione sicura della mappa annidata
-            Map<String, Object> periodo = (Map<String, Object>) data.get("periodo");
-            if (periodo != null && periodo.get("anno") != null) {
-                return Integer.parseInt(periodo.get("anno").toString().replaceAll("[^0-9]", ""));
-            }
+            yearFolderService.addFile(user.getId(), processed.year(), processed.month(), processed.fileItem());
+            timer.lap("folder");
         } catch (Exception e) {
-            log.warn("Anno non trovato nei dati AI per {}, uso fallback", filename);
+            log.error("Errore durante l'aggiornamento cartelle per {}: {}", fileName, e.getMessage());
+            processed.response().getExtractionErrors().add(processError(fileName, e));
         }
-        return LocalDate.now().getYear();
     }
 
-    private int parseMonth(Map<String, Object> data) {
+    private ErrorResponseDto processError(String fileName, Throwable e) {
+        return ErrorResponseDto.builder()
+                .type("PROCESS_ERROR")
+                .statusCode(500)
+                .message("Errore durante l'elaborazione di " + fileName + ": " + e.getMessage())
+                .path(fileName)
+                .timestamp(Instant.now())
+                .build();
+    }
+
+    private static <T> CompletableFuture<T> completed(Supplier<T> call) {
         try {
-            Map<String, Object> periodo = (Map<String, Object>) data.get("periodo");
-            if (periodo != null && periodo.get("mese") != null) {
-                String m = periodo.get("mese").toString().toLowerCase();
-                if (m.contains("gen")) return 1; if (m.contains("feb")) return 2;
-                if (m.contains("mar")) return 3; if (m.contains("apr")) return 4;
-                if (m.contains("mag")) return 5; if (m.contains("giu")) return 6;
-                if (m.contains("lug")) return 7; if (m.contains("ago")) return 8;
-                if (m.contains("set")) return 9; if (m.contains("ott")) return 10;
-                if (m.contains("nov")) return 11; if (m.contains("dic")) return 12;
-
-                String monthNum = m.replaceAll("[^0-9]", "");
-                if (!monthNum.isEmpty()) return Integer.parseInt(monthNum);
-            }
-        } catch (Exception e) {
-            log.warn("Impossibile parsare il mese dai dati AI");
+            return CompletableFuture.completedFuture(call.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static CompletionException asCompletionException(Throwable error) {
+        return error instanceof CompletionException completion ? completion : new CompletionException(error);
+    }
+
+    /**
+     * Esito intermedio del mass upload: il FileItem è presente solo se l'estrazione è andata a buon fine.
+     */
+    private record ProcessedPayslip(PayslipResponseDto response, FileItem fileItem, int year, int month) {
+    }
+
+    /**
+     * Misura la durata dei singoli stadi di elaborazione e la pubblica su Micrometer (paypeek.upload.stage).
+     */
+    private final class StageTimer {
+        private final Map<String, Long> timingsMs = new LinkedHashMap<>();
+        private long mark = System.nanoTime();
+
+        void lap(String stage) {
+            long now = System.nanoTime();
+            long elapsed = now - mark;
+            mark = now;
+            timingsMs.put(stage, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            meterRegistry.timer("paypeek.upload.stage", "stage", stage).record(elapsed, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return timingsMs.toString();
         }
-        return LocalDate.now().getMonthValue(); // Fallback
+    }
+
+    // --- UTILS ---
+
+    // Le cartelle hanno sempre un periodo: se l'IA non lo riconosce si usa quello corrente
+    private int parseYear(Map<String, Object> data, String filename) {
+        return PayslipPeriod.year(data).orElseGet(() -> {
+            log.warn("Anno non trovato nei dati AI per {}, uso fallback", filename);
+            return LocalDate.now().getYear();
+        });
+    }
+
+    private int parseMonth(Map<String, Object> data) {
+        return PayslipPeriod.month(data).orElseGet(() -> {
+            log.warn("Impossibile parsare il mese dai dati AI");
+            return LocalDate.now().getMonthValue(); // Fallback
+        });
     }
 
     // --- REPOSITORY & STORAGE HELPERS ---
 
-    private String uploadToMinio(MultipartFile file, String userId) {
+    /**
+     * Template dell'utente: prima per layout (stesso gestionale/azienda anche con valori diversi),
+     * poi per signature esatta, che copre i template creati prima dell'impronta di layout.
+     */
+    private Optional<PayrollTemplate> findTemplate(String userId, LayoutFingerprint layout, String signature) {
+        return Optional.ofNullable(layout)
+                .flatMap(fingerprint -> layoutFingerprintService.findMatchingTemplate(userId, fingerprint))
+                .or(() -> payrollTemplateRepository.findBySignatureAndUserId(signature, userId));
+    }
+
+    private String uploadToMinio(IngestedFile file, String userId) {
         // Creiamo il nome file con UUID per evitare collisioni
         String filename = UUID.randomUUID() + "_" + file.getOriginalFilename();
 
         // Costruiamo il path completo: "ID_UTENTE/UUID_NOMEFILE.ext"
         String fullPath = userId + "/" + filename;
 
-        try {
+        try (InputStream content = file.openStream()) {
             // Usiamo uploadPayslip passando il fullPath come 'filename' (che MinIO userà come Object Key)
-            minIOService.uploadPayslip(file.getInputStream(), fullPath, file.getContentType());
+            minIOService.uploadPayslip(content, file.getSize(), fullPath, file.getContentType());
 
             // Restituiamo il path completo perché è quello che dovrai salvare nel DB
             // per poter recuperare il file in futuro
@@ -314,30 +780,7 @@ public class PayslipService {
         }
     }
 
-    private YearFolder getOrCreateYearFolder(String userId, int year) {
-        return yearFolderRepository.findByUserIdAndYear(userId, year)
-                .orElseGet(() -> yearFolderRepository.save(YearFolder.builder()
-                        .userId(userId).year(year).color(getRandomColor()).months(new ArrayList<>()).build()));
-    }
-
-    private MonthFolder getOrCreateMonthFolder(YearFolder yearFolder, int month) {
-        return yearFolder.getMonths().stream()
-                .filter(m -> m.getMonth() == month)
-                .findFirst()
-                .orElseGet(() -> {
-                    MonthFolder nf = MonthFolder.builder()
-                            .id(UUID.randomUUID().toString())
-                            .month(month)
-                            .name(Month.of(month).getDisplayName(TextStyle.FULL, Locale.ITALIAN))
-                            .files(new ArrayList<>())
-                            .build();
-                    yearFolder.getMonths().add(nf);
-                    yearFolder.getMonths().sort(Comparator.comparingInt(MonthFolder::getMonth).reversed());
-                    return nf;
-                });
-    }
-
-    private FileItem buildFileItem(MultipartFile file, String url) {
+    private FileItem buildFileItem(IngestedFile file, String url) {
         return FileItem.builder()
                 .id(UUID.randomUUID().toString())
                 .name(file.getOriginalFilename())
@@ -348,38 +791,64 @@ public class PayslipService {
                 .build();
     }
 
-    private User getCurrentUser() {
+    User getCurrentUser() {
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
         return userRepository.findByEmail(email).orElseThrow();
     }
 
-    private String getRandomColor() {
-        String[] colors = {"#FF5733", "#33FF57", "#3357FF", "#F1C40F", "#9B59B6", "#E67E22"};
-        return colors[new Random().nextInt(colors.length)];
-    }
-
     public Payslip confirmAndSave(PayslipResponseDto dto) {
         User user = getCurrentUser();
 
         // 1. Salvataggio o Recupero Template
-        PayrollTemplate template = payrollTemplateRepository.findBySignatureAndUserId(dto.getSignature(), user.getId())
-                .orElseGet(() -> payrollTemplateRepository.save(PayrollTemplate.builder()
-                        .name("Template " + dto.getAzienda())
-                        .signature(dto.getSignature())
-                        .userId(user.getId())
-                        .regexPatterns(dto.getRegex())
-                        .build()));
+        PayrollTemplate template = Optional.ofNullable(dto.getLayoutFingerprint())
+                .flatMap(fingerprint -> payrollTemplateRepository.findFirstByLayoutFingerprintAndUserId(fingerprint, user.getId()))
+                .or(() -> payrollTemplateRepository.findBySignatureAndUserId(dto.getSignature(), user.getId()))
+                .map(existing -> correctTemplate(user, existing, dto.getRegex()))
+                .orElseGet(() -> {
+                    PayrollTemplate newTemplate = PayrollTemplate.builder()
+                            .name("Template " + dto.getAzienda())
+                            .signature(dto.getSignature())
+                            .layoutFingerprint(dto.getLayoutFingerprint())
+                            .layoutFeatures(dto.getLayoutFeatures())
+                            .userId(user.getId())
+                            .regexPatterns(dto.getRegex())
+                            .build();
+                    // Le regex arrivano dall'IA: le validiamo prima di salvarle
+                    regexSafetyService.validate(newTemplate);
+                    return payrollTemplateRepository.save(newTemplate);
+                });
+        templatePatternCache.warm(template);
 
         // 2. Salvataggio Payslip definitiva
         Payslip payslip = Payslip.builder()
+                .userId(user.getId())
                 .templateId(template.getId())
                 .fileName("Estratto da " + dto.getAzienda())
                 .extractedData(dto.getExtractedData())
+                .year(PayslipPeriod.year(dto.getExtractedData()).orElse(null))
+                .month(PayslipPeriod.month(dto.getExtractedData()).orElse(null))
                 .build();
 
         return payslipRepository.save(payslip);
     }
 
+    /**
+     * Regex confermate dall'utente diverse da quelle del template: il template viene aggiornato (nuovo
+     * updatedAt) e i dati estratti in cache con la versione precedente vengono scartati.
+     */
+    private PayrollTemplate correctTemplate(User user, PayrollTemplate template, Map<String, String> regex) {
+        if (regex == null || regex.isEmpty() || regex.equals(template.getRegexPatterns())) {
+            return template;
+        }
+        log.info("Template {} corretto dall'utente {}", template.getId(), user.getId());
+        template.setRegexPatterns(regex);
+        regexSafetyService.validate(template);
+        PayrollTemplate saved = payrollTemplateRepository.save(template);
+        templatePatternCache.evict(saved.getId());
+        extractionCacheService.evictTemplate(user.getId(), saved.getId());
+        return saved;
+    }
+
     public List<PayrollTemplate> getUserTemplates(String userId) {
         log.info("Recupero template per l'utente ID: {}", userId);
         return payrollTemplateRepository.findByUserId(userId);
@@ -0,0 +1,176 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.RegexBudgetExceededException;
+import com.paypeek.backend.model.PayrollTemplate;
+import com.paypeek.backend.util.GuardedCharSequence;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Esecuzione protetta delle regex generate dall'IA per i template: ogni match ha un budget di passi
+ * e di tempo. I pattern vengono validati al salvataggio misurando come crescono i passi al raddoppiare
+ * dell'input: quelli con crescita super-polinomiale vengono segnati sul template ed esclusi
+ * dall'estrazione locale. Un pattern quadratico (es. {@code ([\d.]+,\d{2})}) resta valido.
+ */
+@Service
+@Slf4j
+public class RegexSafetyService {
+
+    // Input costruiti per far esplodere i pattern con quantificatori annidati su cifre, lettere e spazi
+    private static final List<Probe> PROBES = List.of(
+            new Probe("1", "x"),
+            new Probe("a", "!"),
+            new Probe(" ", "#"),
+            new Probe("1.234,56 ", "§"),
+            new Probe("NETTO DEL MESE ", "\u0000"));
+
+    // Lunghezze (in caratteri) a cui viene misurato ogni input di prova, ognuna il doppio della precedente
+    private static final int[] PROBE_LENGTHS = {64, 128, 256, 512};
+    // Sotto questa soglia i conteggi sono troppo piccoli perché il rapporto tra due misure sia significativo
+    private static final long MIN_MEASURED_STEPS = 10_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final TemplatePatternCache templatePatternCache;
+    private final long maxSteps;
+    private final long maxMillis;
+    private final double maxGrowthFactor;
+
+    public RegexSafetyService(MongoTemplate mongoTemplate,
+                              TemplatePatternCache templatePatternCache,
+                              @Value("${app.regex.max-steps:1000000}") long maxSteps,
+                              @Value("${app.regex.max-millis:200}") long maxMillis,
+                              @Value("${app.regex.max-growth-degree:3}") int maxGrowthDegree) {
+        this.mongoTemplate = mongoTemplate;
+        this.templatePatternCache = templatePatternCache;
+        this.maxSteps = maxSteps;
+        this.maxMillis = maxMillis;
+        // Polinomio di grado k: raddoppiando l'input i passi crescono al più di 2^k
+        this.maxGrowthFactor = Math.pow(2, maxGrowthDegree);
+    }
+
+    /**
+     * Primo match del pattern nel testo (gruppo 1 se presente). Lancia RegexBudgetExceededException
+     * se il pattern supera il budget.
+     */
+    public Optional<String> find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(new GuardedCharSequence(text, maxSteps, TimeUnit.MILLISECONDS.toNanos(maxMillis)));
+        if (!matcher.find()) return Optional.empty();
+
+        String value = matcher.groupCount() >= 1 && matcher.group(1) != null ? matcher.group(1) : matcher.group();
+        return value.isBlank() ? Optional.empty() : Optional.of(value.trim());
+    }
+
+    /**
+     * Campi con pattern non validi o con crescita super-polinomiale sugli input di prova.
+     */
+    public List<String> findUnsafePatterns(Map<String, String> patterns) {
+        List<String> unsafe = new ArrayList<>();
+        if (patterns == null) return unsafe;
+
+        for (Map.Entry<String, String> rule : patterns.entrySet()) {
+            try {
+                Pattern pattern = Pattern.compile(rule.getValue(), Pattern.MULTILINE);
+                for (Probe probe : PROBES) {
+                    Optional<String> reason = superPolynomialGrowth(pattern, probe);
+                    if (reason.isPresent()) {
+                        log.warn("Regex del campo {} scartata: {}", rule.getKey(), reason.get());
+                        unsafe.add(rule.getKey());
+                        break;
+                    }
+                }
+            } catch (PatternSyntaxException e) {
+                log.warn("Regex del campo {} scartata: {}", rule.getKey(), e.getMessage());
+                unsafe.add(rule.getKey());
+            }
+        }
+        return unsafe;
+    }
+
+    /**
+     * Misura i passi alle lunghezze crescenti dell'input di prova. Il pattern è pericoloso se i passi crescono
+     * più di {@code 2^max-growth-degree} a un raddoppio, oppure se sfora il budget dove un polinomio ammesso
+     * ci sarebbe rientrato (anche alla lunghezza minima). Se il budget si esaurisce per una crescita ammessa
+     * la misura si ferma: a runtime il pattern resta comunque protetto dal budget di {@link #find}.
+     */
+    private Optional<String> superPolynomialGrowth(Pattern pattern, Probe probe) {
+        long previous = 0;
+        for (int length : PROBE_LENGTHS) {
+            long steps;
+            try {
+                steps = countSteps(pattern, probe.of(length));
+            } catch (RegexBudgetExceededException e) {
+                if (previous == 0 || previous * maxGrowthFactor < maxSteps) {
+                    return Optional.of(e.getMessage() + " su " + length + " caratteri");
+                }
+                return Optional.empty();
+            }
+            if (previous > 0 && steps > MIN_MEASURED_STEPS && steps > previous * maxGrowthFactor) {
+                return Optional.of(String.format(Locale.ROOT, "passi cresciuti di %.1fx passando a %d caratteri",
+                        (double) steps / previous, length));
+            }
+            previous = Math.max(steps, 1);
+        }
+        return Optional.empty();
+    }
+
+    private long countSteps(Pattern pattern, String text) {
+        GuardedCharSequence guarded = new GuardedCharSequence(text, maxSteps, TimeUnit.MILLISECONDS.toNanos(maxMillis));
+        pattern.matcher(guarded).find();
+        return guarded.getSteps();
+    }
+
+    /**
+     * Segna il template prima del salvataggio.
+     */
+    public void validate(PayrollTemplate template) {
+        List<String> unsafe = findUnsafePatterns(template.getRegexPatterns());
+        template.setUnsafePatterns(unsafe);
+        template.setRegexUnsafe(!unsafe.isEmpty());
+    }
+
+    /**
+     * Un pattern ha sforato il budget durante un'estrazione reale: lo segniamo sul template
+     * così le estrazioni successive non lo eseguono più.
+     */
+    public void flagUnsafe(PayrollTemplate template, String field) {
+        log.warn("Template {}: regex del campo {} oltre il budget, verrà esclusa", template.getId(), field);
+        if (template.getId() == null) return;
+
+        mongoTemplate.updateFirst(
+                query(where("_id").is(template.getId())),
+                new Update()
+                        .addToSet("unsafePatterns", field)
+                        .set("regexUnsafe", true)
+                        .set("updatedAt", Instant.now()),
+                PayrollTemplate.class);
+        templatePatternCache.evict(template.getId());
+    }
+
+    /**
+     * Input di prova: {@code unit} ripetuta fino alla lunghezza richiesta, seguita da un terminatore
+     * che impedisce il match e forza il backtracking.
+     */
+    private record Probe(String unit, String terminator) {
+
+        String of(int length) {
+            return unit.repeat(Math.max(1, length / unit.length())) + terminator;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.RegexBudgetExceededException;
+import com.paypeek.backend.model.PayrollTemplate;
+import com.paypeek.backend.util.ExtractionResult;
+import com.paypeek.backend.util.IngestedFile;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estrazione guidata in JVM: legge il text layer con PDFBox e applica le regex del template,
+ * producendo la stessa forma di {@code extractedData} restituita dall'estrattore Python.
+ * Se la confidenza è bassa il chiamante ripiega sulla chiamata remota.
+ */
+@Service
+@Slf4j
+public class TemplateExtractionEngine {
+
+    public static final String SOURCE_LOCAL = "local";
+
+    private static final List<String> ITALIAN_MONTHS = List.of(
+            "Gennaio", "Febbraio", "Marzo", "Aprile", "Maggio", "Giugno",
+            "Luglio", "Agosto", "Settembre", "Ottobre", "Novembre", "Dicembre");
+    private static final Pattern PERIOD = Pattern.compile(
+            "\\b(" + String.join("|", ITALIAN_MONTHS) + ")\\s+(\\d{4})\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ITALIAN_AMOUNT = Pattern.compile("-?(\\d{1,3}(\\.\\d{3})+|\\d+),\\d{1,2}");
+    private static final Pattern DECIMAL_AMOUNT = Pattern.compile("-?\\d+\\.\\d{1,2}");
+
+    private final TemplatePatternCache templatePatternCache;
+    private final RegexSafetyService regexSafetyService;
+
+    @Value("${app.extraction.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.extraction.local.min-confidence:0.8}")
+    private double minConfidence;
+
+    public TemplateExtractionEngine(TemplatePatternCache templatePatternCache, RegexSafetyService regexSafetyService) {
+        this.templatePatternCache = templatePatternCache;
+        this.regexSafetyService = regexSafetyService;
+    }
+
+    /**
+     * Risposta nello stesso formato dell'estrattore ({@code extractedData}, {@code azienda}),
+     * vuota se il PDF non ha testo o se le regex coprono troppo pochi campi.
+     */
+    public Optional<ExtractionResult> extract(IngestedFile file, PayrollTemplate template) {
+        if (!enabled || template.getRegexPatterns() == null || template.getRegexPatterns().isEmpty()) {
+            return Optional.empty();
+        }
+
+        String text;
+        try (PDDocument document = file.loadPdf()) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            text = stripper.getText(document);
+        } catch (IOException e) {
+            log.warn("Text layer non leggibile per {}: {}", file.getOriginalFilename(), e.getMessage());
+            return Optional.empty();
+        }
+
+        if (text.isBlank()) {
+            return Optional.empty(); // Probabile scansione: serve l'OCR dell'estrattore
+        }
+        return extractFromText(text, template, file.getOriginalFilename());
+    }
+
+    /**
+     * Applica le regex del template a un testo già estratto.
+     */
+    public Optional<ExtractionResult> extractFromText(String text, PayrollTemplate template, String fileName) {
+        if (template.getRegexPatterns() == null || template.getRegexPatterns().isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> extractedData = new LinkedHashMap<>();
+        int matched = 0;
+
+        for (Map.Entry<String, Pattern> rule : templatePatternCache.get(template).entrySet()) {
+            Optional<String> value;
+            try {
+                value = regexSafetyService.find(rule.getValue(), text);
+            } catch (RegexBudgetExceededException e) {
+                regexSafetyService.flagUnsafe(template, rule.getKey());
+                value = Optional.empty();
+            }
+            if (value.isPresent()) {
+                put(extractedData, normalizeKey(rule.getKey()), normalizeValue(value.get()));
+                matched++;
+            }
+        }
+
+        fillPeriodFromText(extractedData, text);
+
+        double confidence = (double) matched / template.getRegexPatterns().size();
+        boolean hasPeriod = extractedData.get("periodo") instanceof Map<?, ?> periodo
+                && periodo.get("mese") != null && periodo.get("anno") != null;
+
+        if (confidence < minConfidence || !hasPeriod) {
+            log.info("Estrazione locale insufficiente per {} (confidenza {}, periodo {})",
+                    fileName, String.format(Locale.ROOT, "%.2f", confidence), hasPeriod ? "trovato" : "assente");
+            return Optional.empty();
+        }
+
+        log.debug("Estrazione locale riuscita per {} (confidenza {})", fileName, String.format(Locale.ROOT, "%.2f", confidence));
+        Object azienda = extractedData.getOrDefault("azienda", template.getName().replaceFirst("^Template ", ""));
+        return Optional.of(new ExtractionResult(null, extractedData, null, null, String.valueOf(azienda), SOURCE_LOCAL));
+    }
+
+    /**
+     * "mese"/"anno" al primo livello finiscono sotto "periodo", come nella risposta dell'estrattore.
+     */
+    private String normalizeKey(String key) {
+        return switch (key) {
+            case "mese", "anno" -> "periodo." + key;
+            default -> key;
+        };
+    }
+
+    /**
+     * Importi in formato italiano ("1.647,00") o con punto decimale diventano Double come nella risposta
+     * dell'estrattore; tutto il resto (anni, matricole, testi) resta stringa.
+     */
+    private Object normalizeValue(String value) {
+        String compact = value.replace("€", "").replaceAll("\\s", "");
+        if (ITALIAN_AMOUNT.matcher(compact).matches()) {
+            return Double.parseDouble(compact.replace(".", "").replace(",", "."));
+        }
+        if (DECIMAL_AMOUNT.matcher(compact).matches()) {
+            return Double.parseDouble(compact);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(Map<String, Object> target, String dottedKey, Object value) {
+        String[] path = dottedKey.split("\\.");
+        Map<String, Object> node = target;
+        for (int i = 0; i < path.length - 1; i++) {
+            node = (Map<String, Object>) node.compute(path[i],
+                    (k, existing) -> existing instanceof Map<?, ?> ? existing : new LinkedHashMap<String, Object>());
+        }
+        node.put(path[path.length - 1], value);
+    }
+
+    /**
+     * Se le regex non coprono il periodo lo cerchiamo nel testo ("Gennaio 2025").
+     */
+    private void fillPeriodFromText(Map<String, Object> extractedData, String text) {
+        Object current = extractedData.get("periodo");
+        Map<?, ?> periodo = current instanceof Map<?, ?> map ? map : Map.of();
+        if (periodo.get("mese") != null && periodo.get("anno") != null) return;
+
+        Matcher matcher = PERIOD.matcher(text);
+        if (!matcher.find()) return;
+
+        String month = ITALIAN_MONTHS.stream()
+                .filter(m -> m.equalsIgnoreCase(matcher.group(1)))
+                .findFirst().orElse(matcher.group(1));
+        if (periodo.get("mese") == null) put(extractedData, "periodo.mese", month);
+        if (periodo.get("anno") == null) put(extractedData, "periodo.anno", matcher.group(2));
+    }
+}
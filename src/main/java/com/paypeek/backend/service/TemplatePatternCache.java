@@ -0,0 +1,95 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.model.PayrollTemplate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Regex dei template già compilate, per id template e data di ultima modifica:
+ * durante le estrazioni massive ogni pattern viene compilato una sola volta.
+ */
+@Component
+@Slf4j
+public class TemplatePatternCache {
+
+    private final Map<String, CompiledPatterns> cache;
+    private final Counter hits;
+    private final Counter compilations;
+
+    public TemplatePatternCache(MeterRegistry meterRegistry,
+                                @Value("${app.template.pattern-cache.max-entries:500}") int maxEntries) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledPatterns> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        this.hits = meterRegistry.counter("paypeek.template.patterns", "result", "hit");
+        this.compilations = meterRegistry.counter("paypeek.template.patterns", "result", "compiled");
+        meterRegistry.gaugeMapSize("paypeek.template.patterns.cache.size", Collections.emptyList(), cache);
+    }
+
+    /**
+     * Pattern compilati del template. Le regex non valide restano fuori dalla mappa.
+     */
+    public Map<String, Pattern> get(PayrollTemplate template) {
+        if (template.getId() == null) {
+            return compile(template); // Template non ancora salvato: niente da indicizzare
+        }
+
+        CompiledPatterns cached = cache.get(template.getId());
+        if (cached != null && Objects.equals(cached.version(), template.getUpdatedAt())) {
+            hits.increment();
+            return cached.patterns();
+        }
+
+        Map<String, Pattern> patterns = compile(template);
+        cache.put(template.getId(), new CompiledPatterns(template.getUpdatedAt(), patterns));
+        return patterns;
+    }
+
+    /**
+     * Compila in anticipo i pattern di un template appena creato o aggiornato.
+     */
+    public void warm(PayrollTemplate template) {
+        if (template != null && template.getRegexPatterns() != null) {
+            get(template);
+        }
+    }
+
+    public void evict(String templateId) {
+        cache.remove(templateId);
+    }
+
+    private Map<String, Pattern> compile(PayrollTemplate template) {
+        Map<String, Pattern> patterns = new LinkedHashMap<>();
+        if (template.getRegexPatterns() == null) return patterns;
+
+        for (Map.Entry<String, String> rule : template.getRegexPatterns().entrySet()) {
+            if (template.getUnsafePatterns() != null && template.getUnsafePatterns().contains(rule.getKey())) {
+                continue; // Segnata come pericolosa: non la eseguiamo in JVM
+            }
+            try {
+                patterns.put(rule.getKey(), Pattern.compile(rule.getValue(), Pattern.MULTILINE));
+                compilations.increment();
+            } catch (PatternSyntaxException e) {
+                log.warn("Regex non valida nel template {} per il campo {}: {}", template.getId(), rule.getKey(), e.getDescription());
+            }
+        }
+        return Collections.unmodifiableMap(patterns);
+    }
+
+    private record CompiledPatterns(Instant version, Map<String, Pattern> patterns) {
+    }
+}
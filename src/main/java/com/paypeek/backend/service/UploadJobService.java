@@ -0,0 +1,210 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.dto.PayslipResponseDto;
+import com.paypeek.backend.dto.UploadJobDto;
+import com.paypeek.backend.dto.mapper.UploadJobMapper;
+import com.paypeek.backend.exception.QuotaExceededException;
+import com.paypeek.backend.exception.ResourceNotFoundException;
+import com.paypeek.backend.model.UploadJob;
+import com.paypeek.backend.model.User;
+import com.paypeek.backend.repository.UploadJobRepository;
+import com.paypeek.backend.util.IngestedFile;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Mass upload in modalità job: la richiesta HTTP ritorna subito con l'id del job,
+ * l'elaborazione prosegue in background e l'avanzamento per file viene salvato su MongoDB.
+ */
+@Service
+@Slf4j
+public class UploadJobService {
+
+    private final PayslipService payslipService;
+    private final IngestionService ingestionService;
+    private final UploadJobRepository uploadJobRepository;
+    private final UploadJobMapper uploadJobMapper;
+    private final MongoTemplate mongoTemplate;
+    private final UploadQuotaService uploadQuotaService;
+    private final ExecutorService jobExecutor;
+    private final Semaphore jobPermits;
+    private final long queueRetryAfterSeconds;
+    private final Instant startedAt = Instant.now();
+
+    public UploadJobService(PayslipService payslipService,
+                            IngestionService ingestionService,
+                            UploadJobRepository uploadJobRepository,
+                            UploadJobMapper uploadJobMapper,
+                            MongoTemplate mongoTemplate,
+                            UploadQuotaService uploadQuotaService,
+                            @Value("${app.upload.jobs.max-concurrent:2}") int maxConcurrentJobs,
+                            @Value("${app.upload.jobs.queue-capacity:20}") int queueCapacity,
+                            @Value("${app.upload.jobs.retry-after-seconds:30}") long queueRetryAfterSeconds) {
+        this.payslipService = payslipService;
+        this.ingestionService = ingestionService;
+        this.uploadJobRepository = uploadJobRepository;
+        this.uploadJobMapper = uploadJobMapper;
+        this.mongoTemplate = mongoTemplate;
+        this.uploadQuotaService = uploadQuotaService;
+        this.queueRetryAfterSeconds = queueRetryAfterSeconds;
+
+        // Ogni job accodato tiene in memoria (o su disco) i propri file: il permesso si prende prima
+        // dell'ingest e copre sia i job in esecuzione sia quelli in coda, quindi la coda non trabocca mai
+        this.jobPermits = new Semaphore(maxConcurrentJobs + queueCapacity);
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+            Thread thread = new Thread(runnable, "upload-job-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdown();
+    }
+
+    /**
+     * Registra il job e ne accoda l'elaborazione. I file vengono acquisiti prima di ritornare,
+     * perché quelli della richiesta multipart non sono più leggibili a risposta inviata.
+     * Con la coda dei job piena la richiesta viene respinta (429 + Retry-After) prima di leggere i file.
+     */
+    public UploadJobDto submit(List<MultipartFile> files) {
+        User user = payslipService.getCurrentUser();
+
+        // Slot e posto in coda restano occupati per tutta la vita del job e vengono liberati da run();
+        // i token della quota si restituiscono se il job non parte
+        UploadQuotaService.UploadAdmission slot = uploadQuotaService.admitUpload(user, files);
+        if (!jobPermits.tryAcquire()) {
+            slot.refund();
+            slot.close();
+            throw new QuotaExceededException("Troppi job di upload in coda, riprova più tardi", queueRetryAfterSeconds);
+        }
+
+        List<IngestedFile> ingested = List.of();
+        UploadJob job = null;
+        try {
+            ingested = ingestionService.ingestAll(files);
+            job = saveJob(user, files);
+
+            String jobId = job.getId();
+            List<IngestedFile> jobFiles = ingested;
+            jobExecutor.execute(() -> run(jobId, user, jobFiles, slot));
+        } catch (RuntimeException e) {
+            ingested.forEach(IngestedFile::close);
+            slot.refund();
+            slot.close();
+            jobPermits.release();
+            if (job != null) {
+                // Salvato ma mai accodato (applicazione in arresto)
+                updateJob(job.getId(), new Update()
+                        .set("status", UploadJob.FAILED)
+                        .set("errorDetails", "Job non avviato: " + e.getMessage())
+                        .set("completedAt", Instant.now()));
+            }
+            throw e;
+        }
+
+        log.info("Job di upload {} creato per utente {} ({} file)", job.getId(), user.getEmail(), files.size());
+        return uploadJobMapper.toDto(job);
+    }
+
+    private UploadJob saveJob(User user, List<MultipartFile> files) {
+        return uploadJobRepository.save(UploadJob.builder()
+                .userId(user.getId())
+                .status(UploadJob.PENDING)
+                .totalFiles(files.size())
+                .processedFiles(0)
+                .fileNames(files.stream().map(MultipartFile::getOriginalFilename).toList())
+                .results(new ArrayList<>(Collections.nCopies(files.size(), null)))
+                .build());
+    }
+
+    /**
+     * Stato del job con i risultati parziali. Un utente vede solo i propri job.
+     */
+    public UploadJobDto getJob(String jobId) {
+        User user = payslipService.getCurrentUser();
+
+        return uploadJobRepository.findById(jobId)
+                .filter(job -> job.getUserId().equals(user.getId()))
+                .map(uploadJobMapper::toDto)
+                .orElseThrow(() -> new ResourceNotFoundException("UploadJob", "id", jobId));
+    }
+
+    private void run(String jobId, User user, List<IngestedFile> files, UploadQuotaService.UploadSlot slot) {
+        updateJob(jobId, new Update().set("status", UploadJob.RUNNING));
+        try {
+            payslipService.massUpload(user, files, (index, result) -> recordResult(jobId, index, result));
+
+            updateJob(jobId, new Update()
+                    .set("status", UploadJob.COMPLETED)
+                    .set("completedAt", Instant.now()));
+            log.info("Job di upload {} completato", jobId);
+        } catch (Exception e) {
+            log.error("Job di upload {} fallito: {}", jobId, e.getMessage(), e);
+            updateJob(jobId, new Update()
+                    .set("status", UploadJob.FAILED)
+                    .set("errorDetails", e.getMessage())
+                    .set("completedAt", Instant.now()));
+        } finally {
+            files.forEach(IngestedFile::close);
+            slot.close();
+            jobPermits.release();
+        }
+    }
+
+    private void recordResult(String jobId, int index, PayslipResponseDto result) {
+        // Aggiornamento mirato: scrive solo lo slot del file senza riscrivere l'intero documento
+        updateJob(jobId, new Update()
+                .set("results." + index, result)
+                .inc("processedFiles", 1));
+    }
+
+    private void updateJob(String jobId, Update update) {
+        mongoTemplate.updateFirst(query(where("_id").is(jobId)), update.set("updatedAt", Instant.now()), UploadJob.class);
+    }
+
+    /**
+     * I file dei job in corso vivono solo in memoria: se l'applicazione si è fermata nel mezzo
+     * non possono essere ripresi, quindi li chiudiamo come falliti invece di lasciarli appesi.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedJobs() {
+        Instant now = Instant.now();
+        Update update = new Update()
+                .set("status", UploadJob.FAILED)
+                .set("errorDetails", "Elaborazione interrotta dal riavvio del server")
+                .set("completedAt", now)
+                .set("updatedAt", now);
+        long updated = mongoTemplate.updateMulti(
+                query(where("status").in(UploadJob.PENDING, UploadJob.RUNNING)
+                        .orOperator(where("createdAt").lt(startedAt), where("createdAt").exists(false))),
+                update, UploadJob.class).getModifiedCount();
+        if (updated > 0) {
+            log.warn("{} job di upload interrotti marcati come FAILED", updated);
+        }
+    }
+}
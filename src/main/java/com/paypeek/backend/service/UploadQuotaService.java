@@ -0,0 +1,192 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.dto.enums.Role;
+import com.paypeek.backend.exception.QuotaExceededException;
+import com.paypeek.backend.model.User;
+import com.paypeek.backend.util.TokenBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Quote di upload per utente: file e byte per finestra temporale (token bucket) e numero massimo di
+ * mass upload/job contemporanei. Gli ADMIN e gli utenti in {@code app.quota.unlimited-users} sono esclusi.
+ * I token vanno restituiti ({@link UploadCharge#refund()}) se l'upload non viene poi accettato.
+ */
+@Service
+@Slf4j
+public class UploadQuotaService {
+
+    private final boolean enabled;
+    private final long filesPerWindow;
+    private final long bytesPerWindow;
+    private final long windowMinutes;
+    private final int maxConcurrentUploads;
+    private final Set<String> unlimitedUsers;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, UserBuckets> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> activeUploads = new ConcurrentHashMap<>();
+
+    public UploadQuotaService(MeterRegistry meterRegistry,
+                              @Value("${app.quota.enabled:true}") boolean enabled,
+                              @Value("${app.quota.files-per-window:200}") long filesPerWindow,
+                              @Value("${app.quota.bytes-per-window:1GB}") DataSize bytesPerWindow,
+                              @Value("${app.quota.window-minutes:60}") long windowMinutes,
+                              @Value("${app.quota.max-concurrent-uploads:2}") int maxConcurrentUploads,
+                              @Value("${app.quota.unlimited-users:}") List<String> unlimitedUsers) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.filesPerWindow = filesPerWindow;
+        this.bytesPerWindow = bytesPerWindow.toBytes();
+        this.windowMinutes = windowMinutes;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.unlimitedUsers = unlimitedUsers.stream()
+                .map(String::trim)
+                .filter(email -> !email.isEmpty())
+                .map(email -> email.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Scala dalla quota dell'utente i file della richiesta e la loro dimensione complessiva.
+     */
+    public UploadCharge checkUpload(User user, List<MultipartFile> files) {
+        if (isUnlimited(user)) return () -> { };
+
+        long count = files.size();
+        long bytes = files.stream().mapToLong(MultipartFile::getSize).sum();
+        UserBuckets userBuckets = buckets.computeIfAbsent(user.getId(), id -> new UserBuckets(
+                new TokenBucket(filesPerWindow, windowMinutes, TimeUnit.MINUTES),
+                new TokenBucket(bytesPerWindow, windowMinutes, TimeUnit.MINUTES)));
+
+        if (!userBuckets.files().tryConsume(count)) {
+            reject(user, "files", "Limite di file caricati raggiunto (" + filesPerWindow + " ogni " + windowMinutes + " minuti)",
+                    userBuckets.files().secondsUntil(count));
+        }
+        if (!userBuckets.bytes().tryConsume(bytes)) {
+            userBuckets.files().refund(count);
+            reject(user, "bytes", "Limite di dati caricati raggiunto (" + DataSize.ofBytes(bytesPerWindow).toMegabytes()
+                    + " MB ogni " + windowMinutes + " minuti)", userBuckets.bytes().secondsUntil(bytes));
+        }
+
+        AtomicInteger refunded = new AtomicInteger();
+        return () -> {
+            if (refunded.compareAndSet(0, 1)) {
+                userBuckets.files().refund(count);
+                userBuckets.bytes().refund(bytes);
+            }
+        };
+    }
+
+    /**
+     * Ammissione di un mass upload o di un job: prima lo slot, poi la quota. Un rifiuto per concorrenza
+     * non consuma token, e un rifiuto per quota libera subito lo slot.
+     */
+    public UploadAdmission admitUpload(User user, List<MultipartFile> files) {
+        UploadSlot slot = acquireUploadSlot(user);
+        try {
+            return new UploadAdmission(slot, checkUpload(user, files));
+        } catch (RuntimeException e) {
+            slot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Occupa uno dei mass upload contemporanei consentiti all'utente; lo slot si libera con {@link UploadSlot#close()}.
+     */
+    public UploadSlot acquireUploadSlot(User user) {
+        if (isUnlimited(user)) return () -> { };
+
+        AtomicInteger active = activeUploads.computeIfAbsent(user.getId(), id -> new AtomicInteger());
+        while (true) {
+            int current = active.get();
+            if (current >= maxConcurrentUploads) {
+                reject(user, "concurrency", "Hai già " + current + " caricamenti massivi in corso, attendi che terminino", 30);
+            }
+            if (active.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+
+        AtomicInteger released = new AtomicInteger();
+        return () -> {
+            // Idempotente: il job può chiudere lo slot sia in caso di errore di avvio sia a fine elaborazione
+            if (released.compareAndSet(0, 1)) {
+                active.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * I bucket pieni equivalgono a bucket nuovi: li rimuoviamo per non accumulare utenti inattivi.
+     */
+    @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.MINUTES)
+    public void evictIdleBuckets() {
+        buckets.entrySet().removeIf(entry -> entry.getValue().files().isFull() && entry.getValue().bytes().isFull());
+    }
+
+    private boolean isUnlimited(User user) {
+        return !enabled
+                || user.getRole() == Role.ADMIN
+                || (user.getEmail() != null && unlimitedUsers.contains(user.getEmail().toLowerCase(Locale.ROOT)));
+    }
+
+    private void reject(User user, String limit, String message, long retryAfterSeconds) {
+        meterRegistry.counter("paypeek.upload.quota.rejected", "limit", limit).increment();
+        log.info("Quota {} superata per utente {}", limit, user.getEmail());
+        throw new QuotaExceededException(message, retryAfterSeconds);
+    }
+
+    @FunctionalInterface
+    public interface UploadSlot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @FunctionalInterface
+    public interface UploadCharge {
+        /** Restituisce i token prelevati; idempotente. */
+        void refund();
+    }
+
+    /**
+     * Slot e token di un upload ammesso: {@link #close()} libera lo slot a fine elaborazione,
+     * {@link #refund()} restituisce i token se l'upload fallisce prima di partire.
+     */
+    public static final class UploadAdmission implements UploadSlot, UploadCharge {
+        private final UploadSlot slot;
+        private final UploadCharge charge;
+
+        private UploadAdmission(UploadSlot slot, UploadCharge charge) {
+            this.slot = slot;
+            this.charge = charge;
+        }
+
+        @Override
+        public void close() {
+            slot.close();
+        }
+
+        @Override
+        public void refund() {
+            charge.refund();
+        }
+    }
+
+    private record UserBuckets(TokenBucket files, TokenBucket bytes) {
+    }
+}
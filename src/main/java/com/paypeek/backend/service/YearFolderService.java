@@ -0,0 +1,129 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.ResourceNotFoundException;
+import com.paypeek.backend.model.FileItem;
+import com.paypeek.backend.model.MonthFolder;
+import com.paypeek.backend.model.YearFolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Scritture sulle cartelle "stile cartelle" con update atomici mirati: nessun load-modify-save del
+ * documento anno, quindi upload concorrenti sullo stesso anno non si sovrascrivono.
+ * Le cartelle (year_folders) tengono solo mesi e contatori, i FileItem stanno in file_items.
+ */
+@Service
+@Slf4j
+public class YearFolderService {
+
+    private static final String[] COLORS = {"#FF5733", "#33FF57", "#3357FF", "#F1C40F", "#9B59B6", "#E67E22"};
+
+    private final MongoTemplate mongoTemplate;
+
+    public YearFolderService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Aggiunge il file a un mese esistente dell'utente (upload singolo, mese scelto dal FE).
+     */
+    public void addFileToMonth(String userId, String monthId, FileItem fileItem) {
+        insertFile(userId, query(where("userId").is(userId).and("months._id").is(monthId)), fileItem,
+                () -> new ResourceNotFoundException("MonthFolder", "id", monthId));
+    }
+
+    /**
+     * Aggiunge il file al mese indicato, creando cartella anno e mese se mancano (mass upload).
+     * Ogni passo è un singolo update atomico e idempotente rispetto agli upload concorrenti.
+     */
+    public void addFile(String userId, int year, int month, FileItem fileItem) {
+        ensureYearFolder(userId, year);
+        ensureMonthFolder(userId, year, month);
+
+        insertFile(userId, query(where("userId").is(userId).and("year").is(year).and("months.month").is(month)), fileItem,
+                () -> new IllegalStateException("Cartella " + month + "/" + year + " non trovata per l'utente " + userId));
+    }
+
+    /**
+     * Incrementa i contatori del mese individuato da {@code monthQuery} leggendone id e numero nello stesso
+     * passaggio, poi salva il FileItem in file_items. Se il salvataggio fallisce i contatori vengono ripristinati.
+     */
+    private void insertFile(String userId, Query monthQuery, FileItem fileItem, Supplier<RuntimeException> notFound) {
+        long size = fileItem.getSize() != null ? fileItem.getSize() : 0L;
+        monthQuery.fields().include("year").position("months", 1);
+
+        YearFolder folder = mongoTemplate.findAndModify(monthQuery,
+                new Update()
+                        .inc("months.$.fileCount", 1)
+                        .inc("months.$.totalSize", size)
+                        .set("updatedAt", Instant.now()),
+                YearFolder.class);
+        if (folder == null || folder.getMonths().isEmpty()) {
+            throw notFound.get();
+        }
+
+        MonthFolder monthFolder = folder.getMonths().get(0);
+        fileItem.setUserId(userId);
+        fileItem.setYear(folder.getYear());
+        fileItem.setMonth(monthFolder.getMonth());
+        fileItem.setMonthFolderId(monthFolder.getId());
+        try {
+            mongoTemplate.insert(fileItem);
+        } catch (RuntimeException e) {
+            mongoTemplate.updateFirst(
+                    query(where("_id").is(folder.getId()).and("months._id").is(monthFolder.getId())),
+                    new Update().inc("months.$.fileCount", -1).inc("months.$.totalSize", -size),
+                    YearFolder.class);
+            throw e;
+        }
+    }
+
+    private void ensureYearFolder(String userId, int year) {
+        Instant now = Instant.now();
+        try {
+            mongoTemplate.upsert(
+                    query(where("userId").is(userId).and("year").is(year)),
+                    new Update()
+                            .setOnInsert("color", COLORS[ThreadLocalRandom.current().nextInt(COLORS.length)])
+                            .setOnInsert("months", new ArrayList<>())
+                            .setOnInsert("createdAt", now)
+                            .setOnInsert("updatedAt", now),
+                    YearFolder.class);
+        } catch (DuplicateKeyException e) {
+            // Creata nello stesso istante da un altro upload: l'indice unico garantisce una sola cartella
+            log.debug("Cartella {} creata in parallelo per l'utente {}", year, userId);
+        }
+    }
+
+    private void ensureMonthFolder(String userId, int year, int month) {
+        MonthFolder monthFolder = MonthFolder.builder()
+                .id(UUID.randomUUID().toString())
+                .month(month)
+                .name(Month.of(month).getDisplayName(TextStyle.FULL, Locale.ITALIAN))
+                .build();
+
+        // Il filtro "nessun mese uguale" rende il $push condizionale: se il mese esiste già non fa nulla
+        mongoTemplate.updateFirst(
+                query(where("userId").is(userId).and("year").is(year).and("months.month").ne(month)),
+                new Update()
+                        .push("months").sort(Sort.by(Sort.Direction.DESC, "month")).each(monthFolder),
+                YearFolder.class);
+    }
+}
@@ -0,0 +1,86 @@
+package com.paypeek.backend.util;
+
+import org.apache.hc.core5.concurrent.Cancellable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Chiamata annullabile dall'esterno. Le richieste HTTP create dal client AI mentre la chiamata è in corso
+ * (vedi HttpClientConfig) vengono registrate qui: {@link #abort()} le interrompe chiudendo la connessione,
+ * cosa che l'interrupt del thread non fa con l'I/O bloccante di HttpClient.
+ */
+public final class AbortableCall {
+
+    private static final ThreadLocal<AbortableCall> CURRENT = new ThreadLocal<>();
+
+    // Protetti dal monitor dell'istanza
+    private final List<Cancellable> requests = new ArrayList<>();
+    private boolean aborted;
+    private boolean finished;
+
+    /**
+     * Esegue {@code call} sul thread corrente associandole questa chiamata.
+     */
+    public <T> T run(Supplier<T> call) {
+        AbortableCall previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Interrompe le richieste in corso e quelle che partiranno (es. retry). Nessun effetto a chiamata conclusa.
+     */
+    public synchronized void abort() {
+        if (aborted || finished) return;
+        aborted = true;
+        requests.forEach(Cancellable::cancel);
+        requests.clear();
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Vero se il thread corrente sta eseguendo una chiamata annullata: gli errori che ne seguono
+     * non dicono nulla sulla salute dell'estrattore.
+     */
+    public static boolean isCurrentAborted() {
+        AbortableCall call = CURRENT.get();
+        return call != null && call.isAborted();
+    }
+
+    /**
+     * Registra una richiesta HTTP appena creata sulla chiamata del thread corrente, se presente.
+     */
+    public static void register(Cancellable request) {
+        AbortableCall call = CURRENT.get();
+        if (call != null) {
+            call.track(request);
+        }
+    }
+
+    private synchronized void track(Cancellable request) {
+        if (aborted) {
+            request.cancel();
+        } else {
+            requests.add(request);
+        }
+    }
+
+    private synchronized void finish() {
+        finished = true;
+        requests.clear();
+    }
+}
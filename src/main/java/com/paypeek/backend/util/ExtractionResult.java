@@ -0,0 +1,57 @@
+package com.paypeek.backend.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Esito di un'estrazione, qualunque sia la fonte (estrattore Python, regex locali, cache):
+ * il markdown per LightRAG e i dati strutturati vengono da una sola chiamata a /extract.
+ */
+public record ExtractionResult(String markdown,
+                               Map<String, Object> extractedData,
+                               String signature,
+                               Map<String, String> regex,
+                               String azienda,
+                               String source) {
+
+    public static final String SOURCE_EXTRACTOR = "extractor";
+
+    /**
+     * Converte la risposta JSON dell'estrattore (accetta sia "extractedData" che "extracted_data").
+     */
+    @SuppressWarnings("unchecked")
+    public static ExtractionResult from(Map<String, Object> response) {
+        if (response == null) return null;
+
+        Object data = response.get("extractedData") != null ? response.get("extractedData") : response.get("extracted_data");
+        return new ExtractionResult(
+                response.get("markdown") instanceof String markdown ? markdown : null,
+                data instanceof Map<?, ?> map ? (Map<String, Object>) map : null,
+                response.get("signature") instanceof String signature ? signature : null,
+                response.get("regex") instanceof Map<?, ?> regex ? (Map<String, String>) regex : null,
+                response.get("azienda") instanceof String azienda ? azienda : null,
+                response.get("source") instanceof String source ? source : SOURCE_EXTRACTOR);
+    }
+
+    public boolean hasData() {
+        return extractedData != null;
+    }
+
+    public boolean hasMarkdown() {
+        return markdown != null;
+    }
+
+    /**
+     * Formato salvato nella cache su MongoDB (stesse chiavi della risposta dell'estrattore).
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (markdown != null) map.put("markdown", markdown);
+        if (extractedData != null) map.put("extractedData", extractedData);
+        if (signature != null) map.put("signature", signature);
+        if (regex != null) map.put("regex", regex);
+        if (azienda != null) map.put("azienda", azienda);
+        if (source != null) map.put("source", source);
+        return map;
+    }
+}
@@ -0,0 +1,93 @@
+package com.paypeek.backend.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Pool di thread con una coda FIFO per chiave (es. utente) e turno circolare tra le chiavi in attesa:
+ * i 50 file di un utente non fanno attendere il primo file di un altro, che passa al giro successivo.
+ * {@link #shutdown()} completa i task già accodati e rifiuta i nuovi.
+ */
+public class FairTaskExecutor {
+
+    // Stato protetto dal monitor dell'istanza
+    private final Map<String, ArrayDeque<Runnable>> byKey = new HashMap<>();
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private int size;
+    private boolean shutdown;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    public FairTaskExecutor(String threadPrefix, int threads) {
+        for (int i = 1; i <= Math.max(1, threads); i++) {
+            Thread worker = new Thread(this::work, threadPrefix + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public synchronized void execute(String key, Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor in arresto");
+        }
+        byKey.computeIfAbsent(key, k -> {
+            turns.addLast(k);
+            return new ArrayDeque<>();
+        }).addLast(task);
+        size++;
+        notify();
+    }
+
+    public synchronized int queued() {
+        return size;
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            try {
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // I task arrivano da CompletableFuture, che registra già l'errore: il worker non deve morire
+            }
+        }
+    }
+
+    /**
+     * Prossimo task a turno tra le chiavi; null quando l'executor è in arresto e la coda è vuota.
+     */
+    private synchronized Runnable next() throws InterruptedException {
+        while (size == 0) {
+            if (shutdown) return null;
+            wait();
+        }
+        String key = turns.pollFirst();
+        ArrayDeque<Runnable> tasks = byKey.get(key);
+        Runnable task = tasks.pollFirst();
+        if (tasks.isEmpty()) {
+            byKey.remove(key);
+        } else {
+            turns.addLast(key);
+        }
+        size--;
+        return task;
+    }
+}
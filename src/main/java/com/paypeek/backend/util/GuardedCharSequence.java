@@ -0,0 +1,62 @@
+package com.paypeek.backend.util;
+
+import com.paypeek.backend.exception.RegexBudgetExceededException;
+
+/**
+ * CharSequence che conta gli accessi del motore regex: java.util.regex legge il testo solo tramite
+ * charAt, quindi superato il budget di passi (o di tempo) il match viene interrotto con un'eccezione
+ * invece di bloccare la CPU in un backtracking catastrofico.
+ */
+public class GuardedCharSequence implements CharSequence {
+
+    private static final int CLOCK_CHECK_INTERVAL = 4096;
+
+    private final CharSequence text;
+    private final long maxSteps;
+    private final long deadlineNanos;
+    private long steps;
+
+    public GuardedCharSequence(CharSequence text, long maxSteps, long maxNanos) {
+        this(text, maxSteps, System.nanoTime() + maxNanos, 0);
+    }
+
+    private GuardedCharSequence(CharSequence text, long maxSteps, long deadlineNanos, long steps) {
+        this.text = text;
+        this.maxSteps = maxSteps;
+        this.deadlineNanos = deadlineNanos;
+        this.steps = steps;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++steps > maxSteps) {
+            throw new RegexBudgetExceededException("Superato il limite di " + maxSteps + " passi");
+        }
+        if (steps % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() > deadlineNanos) {
+            throw new RegexBudgetExceededException("Superato il tempo massimo di esecuzione");
+        }
+        return text.charAt(index);
+    }
+
+    /**
+     * Accessi al testo finora: misura il lavoro svolto dal motore regex.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new GuardedCharSequence(text.subSequence(start, end), maxSteps, deadlineNanos, steps);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
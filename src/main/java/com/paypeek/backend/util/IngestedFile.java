@@ -0,0 +1,117 @@
+package com.paypeek.backend.util;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Upload letto una sola volta: il contenuto resta in memoria se piccolo, altrimenti su un file temporaneo.
+ * Hash, estrattore e storage leggono tutti dallo stesso buffer senza ulteriori copie.
+ * Va chiuso a fine elaborazione per eliminare l'eventuale file temporaneo e restituire la quota
+ * del budget di upload in volo ({@link UploadReservation}).
+ */
+@Slf4j
+@Getter
+public class IngestedFile implements AutoCloseable {
+
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final String sha256;
+
+    // Accessibili solo tramite openStream()/loadPdf()/asResource(): l'array resta privato e il file di spool
+    // vive quanto l'IngestedFile
+    @Getter(AccessLevel.NONE)
+    private final byte[] content;   // valorizzato solo per i file tenuti in memoria
+    @Getter(AccessLevel.NONE)
+    private final Path spoolFile;   // valorizzato solo per i file riversati su disco
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<UploadReservation> reservation = new AtomicReference<>();
+
+    private IngestedFile(String originalFilename, String contentType, long size, String sha256,
+                         byte[] content, Path spoolFile) {
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+        this.sha256 = sha256;
+        this.content = content;
+        this.spoolFile = spoolFile;
+    }
+
+    public static IngestedFile inMemory(String originalFilename, String contentType, String sha256, byte[] content) {
+        return new IngestedFile(originalFilename, contentType, content.length, sha256, content, null);
+    }
+
+    public static IngestedFile spooled(String originalFilename, String contentType, long size, String sha256, Path spoolFile) {
+        return new IngestedFile(originalFilename, contentType, size, sha256, null, spoolFile);
+    }
+
+    /**
+     * Il file diventa possessore della prenotazione: il budget resta occupato finché non viene chiuso,
+     * anche se l'elaborazione prosegue dopo la fine della richiesta.
+     */
+    public IngestedFile holding(UploadReservation uploadReservation) {
+        if (reservation.compareAndSet(null, uploadReservation)) {
+            uploadReservation.retain();
+        }
+        return this;
+    }
+
+    public boolean isSpooled() {
+        return spoolFile != null;
+    }
+
+    /**
+     * Nuovo stream sul contenuto: per i file in memoria non copia l'array.
+     */
+    public InputStream openStream() throws IOException {
+        return isSpooled() ? Files.newInputStream(spoolFile) : new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Apre il PDF con PDFBox direttamente dal buffer. Il documento va chiuso dal chiamante.
+     */
+    public PDDocument loadPdf() throws IOException {
+        return isSpooled() ? Loader.loadPDF(spoolFile.toFile()) : Loader.loadPDF(content);
+    }
+
+    /**
+     * Resource per i body multipart, con il nome file da inviare al servizio remoto.
+     */
+    public Resource asResource(String filename) {
+        if (isSpooled()) {
+            return new FileSystemResource(spoolFile) {
+                @Override public String getFilename() { return filename; }
+            };
+        }
+        return new ByteArrayResource(content) {
+            @Override public String getFilename() { return filename; }
+        };
+    }
+
+    @Override
+    public void close() {
+        UploadReservation held = reservation.getAndSet(null);
+        if (held != null) {
+            held.release();
+        }
+        if (spoolFile == null) return;
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            log.warn("Impossibile eliminare il file temporaneo {}: {}", spoolFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.paypeek.backend.util;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Impronta strutturale di un PDF: hash per il match esatto e insieme delle feature
+ * (geometria pagina, etichette statiche con posizione) per il match per similarità.
+ */
+public record LayoutFingerprint(String hash, List<String> features) {
+
+    /**
+     * Indice di Jaccard tra le feature dei due layout (0 = nulla in comune, 1 = identici).
+     */
+    public double similarity(List<String> otherFeatures) {
+        if (features.isEmpty() || otherFeatures == null || otherFeatures.isEmpty()) return 0;
+
+        Set<String> union = new HashSet<>(features);
+        union.addAll(otherFeatures);
+        Set<String> intersection = new HashSet<>(features);
+        intersection.retainAll(otherFeatures);
+        return (double) intersection.size() / union.size();
+    }
+}
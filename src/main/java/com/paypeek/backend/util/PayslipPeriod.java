@@ -0,0 +1,57 @@
+package com.paypeek.backend.util;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Normalizzazione del periodo ({@code periodo.anno} / {@code periodo.mese}) dai dati estratti dall'IA,
+ * che può restituire stringhe con spazi, numeri (anche decimali, es. {@code 2024.0} dal JSON) o nomi
+ * dei mesi in italiano.
+ */
+public final class PayslipPeriod {
+
+    private static final String[] MONTH_PREFIXES = {
+            "gen", "feb", "mar", "apr", "mag", "giu", "lug", "ago", "set", "ott", "nov", "dic"
+    };
+
+    private PayslipPeriod() {
+    }
+
+    public static Optional<Integer> year(Map<String, Object> data) {
+        Object anno = periodo(data).get("anno");
+        if (anno == null) return Optional.empty();
+
+        Optional<Integer> year = anno instanceof Number number ? Optional.of(number.intValue()) : digits(anno.toString(), 4);
+        return year.filter(value -> value >= 1900 && value <= 2100);
+    }
+
+    public static Optional<Integer> month(Map<String, Object> data) {
+        Object mese = periodo(data).get("mese");
+        if (mese == null) return Optional.empty();
+        if (mese instanceof Number number) {
+            return Optional.of(number.intValue()).filter(month -> month >= 1 && month <= 12);
+        }
+
+        String value = mese.toString().toLowerCase();
+        for (int i = 0; i < MONTH_PREFIXES.length; i++) {
+            if (value.contains(MONTH_PREFIXES[i])) return Optional.of(i + 1);
+        }
+
+        return digits(value, 2).filter(month -> month >= 1 && month <= 12);
+    }
+
+    /**
+     * Solo per le stringhe: tiene le cifre ("  2024 " o "03/") scartando spazi e separatori.
+     */
+    private static Optional<Integer> digits(String value, int maxLength) {
+        String digits = value.replaceAll("[^0-9]", "");
+        if (digits.isEmpty() || digits.length() > maxLength) return Optional.empty();
+        return Optional.of(Integer.parseInt(digits));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> periodo(Map<String, Object> data) {
+        Object periodo = data != null ? data.get("periodo") : null;
+        return periodo instanceof Map<?, ?> map ? (Map<String, Object>) map : Map.of();
+    }
+}
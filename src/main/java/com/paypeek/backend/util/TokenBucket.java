@@ -0,0 +1,74 @@
+package com.paypeek.backend.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token bucket senza lock: lo stato (token disponibili + istante dell'ultimo ricalcolo) è immutabile
+ * e viene sostituito con compare-and-set. La ricarica è continua, {@code capacity} token per finestra.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private final AtomicReference<State> state;
+
+    public TokenBucket(double capacity, long window, TimeUnit unit) {
+        this.capacity = capacity;
+        this.refillPerNano = capacity / unit.toNanos(window);
+        this.state = new AtomicReference<>(new State(capacity, System.nanoTime()));
+    }
+
+    /**
+     * Preleva {@code amount} token se disponibili. Una richiesta oltre la capacità richiede il bucket pieno.
+     */
+    public boolean tryConsume(double amount) {
+        double needed = Math.min(amount, capacity);
+        while (true) {
+            State current = state.get();
+            long now = System.nanoTime();
+            double tokens = refilled(current, now);
+            if (tokens < needed) {
+                return false;
+            }
+            if (state.compareAndSet(current, new State(tokens - needed, now))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Restituisce token prelevati per un'operazione poi annullata.
+     */
+    public void refund(double amount) {
+        double returned = Math.min(amount, capacity);
+        while (true) {
+            State current = state.get();
+            long now = System.nanoTime();
+            State next = new State(Math.min(capacity, refilled(current, now) + returned), now);
+            if (state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Secondi di attesa stimati prima che {@code amount} token siano disponibili.
+     */
+    public long secondsUntil(double amount) {
+        double missing = Math.min(amount, capacity) - refilled(state.get(), System.nanoTime());
+        if (missing <= 0) return 0;
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds((long) Math.ceil(missing / refillPerNano)));
+    }
+
+    public boolean isFull() {
+        return refilled(state.get(), System.nanoTime()) >= capacity;
+    }
+
+    private double refilled(State current, long now) {
+        return Math.min(capacity, current.tokens() + (now - current.updatedAt()) * refillPerNano);
+    }
+
+    private record State(double tokens, long updatedAt) {
+    }
+}
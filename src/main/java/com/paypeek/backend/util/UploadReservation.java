@@ -0,0 +1,49 @@
+package com.paypeek.backend.util;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Quota del budget di upload in volo prenotata da una richiesta (vedi UploadBudgetFilter).
+ * <p>
+ * La prenotazione ha più possessori: la richiesta stessa e ogni {@link IngestedFile} letto durante la
+ * richiesta. Il budget torna libero solo quando l'ultimo possessore la rilascia, quindi i payload passati
+ * a job asincroni o all'elaborazione in background restano contati finché non vengono chiusi.
+ */
+public final class UploadReservation {
+
+    public static final String ATTRIBUTE = UploadReservation.class.getName();
+
+    private final Runnable onRelease;
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    public UploadReservation(Runnable onRelease) {
+        this.onRelease = onRelease;
+    }
+
+    /**
+     * Prenotazione della richiesta HTTP in corso sul thread corrente, se presente.
+     */
+    public static Optional<UploadReservation> current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) return Optional.empty();
+        return Optional.ofNullable((UploadReservation) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+    }
+
+    /**
+     * Aggiunge un possessore. Va chiamato mentre la richiesta è ancora in corso (la richiesta è un possessore).
+     */
+    public UploadReservation retain() {
+        holders.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (holders.decrementAndGet() == 0) {
+            onRelease.run();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.util.IngestedFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExtractionBatcherTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private ExtractionBatcher batcher;
+
+    /**
+     * Estrattore finto: registra i batch ricevuti e restituisce come risultato il nome del file.
+     */
+    private final BatchExtractor stubExtractor = (userId, files, patterns) -> {
+        batches.add(files.stream().map(IngestedFile::getOriginalFilename).toList());
+        return files.stream()
+                .map(file -> Map.<String, Object>of("file", file.getOriginalFilename()))
+                .toList();
+    };
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void fullBatchIsSentInOneCallAndResultsGoBackToEachFile() {
+        batcher = new ExtractionBatcher(stubExtractor, 3, 60_000, 1);
+
+        List<CompletableFuture<Map<String, Object>>> results = List.of(
+                batcher.submit("user", "tpl", file("a.pdf"), null),
+                batcher.submit("user", "tpl", file("b.pdf"), null),
+                batcher.submit("user", "tpl", file("c.pdf"), null));
+
+        assertThat(results.stream().map(r -> r.join().get("file")).toList())
+                .containsExactly("a.pdf", "b.pdf", "c.pdf");
+        assertThat(batches).containsExactly(List.of("a.pdf", "b.pdf", "c.pdf"));
+    }
+
+    @Test
+    void partialBatchIsFlushedAfterMaxWait() {
+        batcher = new ExtractionBatcher(stubExtractor, 10, 50, 1);
+
+        CompletableFuture<Map<String, Object>> result = batcher.submit("user", "tpl", file("a.pdf"), null);
+
+        assertThat(result.join().get("file")).isEqualTo("a.pdf");
+        assertThat(batches).containsExactly(List.of("a.pdf"));
+    }
+
+    @Test
+    void differentGroupsAreNotMixed() {
+        batcher = new ExtractionBatcher(stubExtractor, 2, 50, 2);
+
+        CompletableFuture<Map<String, Object>> a = batcher.submit("user", "tpl-1", file("a.pdf"), null);
+        CompletableFuture<Map<String, Object>> b = batcher.submit("user", "tpl-2", file("b.pdf"), null);
+        CompletableFuture.allOf(a, b).join();
+
+        assertThat(batches).containsExactlyInAnyOrder(List.of("a.pdf"), List.of("b.pdf"));
+    }
+
+    @Test
+    void extractorFailureFailsEveryFileOfTheBatch() {
+        batcher = new ExtractionBatcher((userId, files, patterns) -> {
+            throw new IllegalStateException("estrattore giù");
+        }, 2, 60_000, 1);
+
+        CompletableFuture<Map<String, Object>> a = batcher.submit("user", "tpl", file("a.pdf"), null);
+        CompletableFuture<Map<String, Object>> b = batcher.submit("user", "tpl", file("b.pdf"), null);
+
+        assertThatThrownBy(a::join).isInstanceOf(CompletionException.class).hasMessageContaining("estrattore giù");
+        assertThatThrownBy(b::join).isInstanceOf(CompletionException.class).hasMessageContaining("estrattore giù");
+    }
+
+    private static IngestedFile file(String name) {
+        return IngestedFile.inMemory(name, "application/pdf", name, new byte[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.exception.ExtractorUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExtractorGatewayTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Breaker aperto dopo un errore e subito half-open (open-seconds 0), un solo tentativo per chiamata
+    private final ExtractorGateway gateway = new ExtractorGateway(meterRegistry,
+            4, 1, 16, 60_000, 1_000, 1_000, 4,
+            1, 0,
+            1, 0, 0);
+
+    @Test
+    void clientErrorOnHalfOpenProbeLeavesBreakerAndLimitUnchanged() {
+        assertThatThrownBy(() -> gateway.execute("/extract", "user", ExtractionPriority.INTERACTIVE, () -> {
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        })).isInstanceOf(ExtractorUnavailableException.class);
+        assertThat(gateway.circuitState()).isEqualTo(ExtractorGateway.CircuitState.OPEN);
+        double limitAfterFailure = limit();
+
+        // La chiamata di prova riceve un 4xx: non dimostra che l'estrattore sia tornato sano
+        assertThatThrownBy(() -> gateway.execute("/extract", "user", ExtractionPriority.INTERACTIVE, () -> {
+            throw new HttpClientErrorException(HttpStatus.PAYLOAD_TOO_LARGE);
+        })).isInstanceOf(ExtractorUnavailableException.class);
+        assertThat(gateway.circuitState()).isEqualTo(ExtractorGateway.CircuitState.HALF_OPEN);
+        assertThat(limit()).isEqualTo(limitAfterFailure);
+        assertThat(inFlight()).isZero();
+
+        // Una nuova prova riuscita chiude il breaker
+        assertThat(gateway.execute("/extract", "user", ExtractionPriority.INTERACTIVE, () -> "ok")).isEqualTo("ok");
+        assertThat(gateway.circuitState()).isEqualTo(ExtractorGateway.CircuitState.CLOSED);
+    }
+
+    @Test
+    void clientErrorDoesNotResetConsecutiveFailures() {
+        ExtractorGateway twoFailures = new ExtractorGateway(meterRegistry, 4, 1, 16, 60_000, 1_000, 1_000, 4,
+                2, 30, 1, 0, 0);
+
+        assertThatThrownBy(() -> twoFailures.execute("/extract", "user", ExtractionPriority.BULK, () -> {
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        })).isInstanceOf(ExtractorUnavailableException.class);
+        assertThatThrownBy(() -> twoFailures.execute("/extract", "user", ExtractionPriority.BULK, () -> {
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+        })).isInstanceOf(ExtractorUnavailableException.class);
+        assertThatThrownBy(() -> twoFailures.execute("/extract", "user", ExtractionPriority.BULK, () -> {
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        })).isInstanceOf(ExtractorUnavailableException.class);
+
+        assertThat(twoFailures.circuitState()).isEqualTo(ExtractorGateway.CircuitState.OPEN);
+    }
+
+    private double limit() {
+        return meterRegistry.get("paypeek.extractor.limit").gauge().value();
+    }
+
+    private double inFlight() {
+        return meterRegistry.get("paypeek.extractor.inflight").gauge().value();
+    }
+}
@@ -0,0 +1,43 @@
+package com.paypeek.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RegexSafetyServiceTest {
+
+    private final RegexSafetyService service = new RegexSafetyService(null, null, 1_000_000, 200, 3);
+
+    @Test
+    void quadraticAmountPatternIsNotFlagged() {
+        // Backtracking quadratico sulla sequenza di cifre senza virgola, ma nessuna esplosione
+        assertThat(service.findUnsafePatterns(Map.of("netto", "([\\d.]+,\\d{2})"))).isEmpty();
+    }
+
+    @Test
+    void typicalTemplatePatternsAreNotFlagged() {
+        Map<String, String> patterns = new LinkedHashMap<>();
+        patterns.put("netto", "NETTO\\s+DEL\\s+MESE\\s+([\\d.]+,\\d{2})");
+        patterns.put("lordo", "(?i)totale\\s+competenze.*?([\\d.]+,\\d{2})");
+        patterns.put("mese", "(GENNAIO|FEBBRAIO|MARZO|APRILE|MAGGIO|GIUGNO)\\s+(\\d{4})");
+
+        assertThat(service.findUnsafePatterns(patterns)).isEmpty();
+    }
+
+    @Test
+    void explodingBacktrackingIsFlagged() {
+        Map<String, String> patterns = new LinkedHashMap<>();
+        patterns.put("netto", "([\\d.]+,\\d{2})");
+        patterns.put("ripetuta", "(.*\\d){5}z");
+
+        assertThat(service.findUnsafePatterns(patterns)).containsExactly("ripetuta");
+    }
+
+    @Test
+    void invalidPatternIsFlagged() {
+        assertThat(service.findUnsafePatterns(Map.of("rotta", "([\\d.]+"))).containsExactly("rotta");
+    }
+}
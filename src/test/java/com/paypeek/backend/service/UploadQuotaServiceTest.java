@@ -0,0 +1,68 @@
+package com.paypeek.backend.service;
+
+import com.paypeek.backend.dto.enums.Role;
+import com.paypeek.backend.exception.QuotaExceededException;
+import com.paypeek.backend.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadQuotaServiceTest {
+
+    private UploadQuotaService quotaService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        // 2 file per finestra, un solo mass upload alla volta
+        quotaService = new UploadQuotaService(new SimpleMeterRegistry(), true, 2, DataSize.ofMegabytes(10), 60, 1, List.of());
+        user = User.builder().email("utente@example.com").role(Role.USER).build();
+        user.setId("user-1");
+    }
+
+    @Test
+    void rejectedSlotDoesNotConsumeTokens() {
+        UploadQuotaService.UploadAdmission running = quotaService.admitUpload(user, List.of(file("a.pdf")));
+
+        // Slot occupato: il secondo upload viene rifiutato senza scalare i file dalla quota
+        assertThatThrownBy(() -> quotaService.admitUpload(user, List.of(file("b.pdf"))))
+                .isInstanceOf(QuotaExceededException.class)
+                .hasMessageContaining("caricamenti massivi");
+
+        running.close();
+        assertThatCode(() -> quotaService.admitUpload(user, List.of(file("c.pdf")))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void rejectedQuotaReleasesTheSlot() {
+        assertThatThrownBy(() -> quotaService.admitUpload(user, List.of(file("a.pdf"), file("b.pdf"), file("c.pdf"))))
+                .isInstanceOf(QuotaExceededException.class)
+                .hasMessageContaining("Limite di file");
+
+        assertThatCode(() -> quotaService.admitUpload(user, List.of(file("a.pdf")))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void refundReturnsTheTokens() {
+        UploadQuotaService.UploadAdmission admission = quotaService.admitUpload(user, List.of(file("a.pdf"), file("b.pdf")));
+        admission.refund();
+        admission.refund();
+        admission.close();
+
+        assertThatCode(() -> quotaService.checkUpload(user, List.of(file("c.pdf"), file("d.pdf")))).doesNotThrowAnyException();
+        assertThatThrownBy(() -> quotaService.checkUpload(user, List.of(file("e.pdf"))))
+                .isInstanceOf(QuotaExceededException.class);
+    }
+
+    private static MultipartFile file(String name) {
+        return new MockMultipartFile("files", name, "application/pdf", new byte[1024]);
+    }
+}
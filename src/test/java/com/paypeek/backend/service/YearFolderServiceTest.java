@@ -0,0 +1,155 @@
+package com.paypeek.backend.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.paypeek.backend.config.MongoIndexRegistry;
+import com.paypeek.backend.exception.ResourceNotFoundException;
+import com.paypeek.backend.model.FileItem;
+import com.paypeek.backend.model.MonthFolder;
+import com.paypeek.backend.model.YearFolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Test di integrazione su un MongoDB reale avviato con Testcontainers (serve Docker): gira con
+ * {@code ./gradlew integrationTest}, incluso in {@code check}/{@code build}, non con {@code ./gradlew test}.
+ */
+@Tag("integration")
+@Testcontainers
+class YearFolderServiceTest {
+
+    private static final String USER_ID = "user-1";
+    private static final int YEAR = 2024;
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7");
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+
+    private YearFolderService yearFolderService;
+
+    @BeforeAll
+    static void connect() {
+        client = MongoClients.create(MONGO.getConnectionString());
+        mongoTemplate = new MongoTemplate(client, "paypeek_test");
+    }
+
+    @AfterAll
+    static void disconnect() {
+        client.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(YearFolder.class);
+        mongoTemplate.dropCollection(FileItem.class);
+        // L'indice unico (userId, year) è ciò che rende sicuro l'upsert concorrente
+        new MongoIndexRegistry(mongoTemplate, new SimpleMeterRegistry(), true, true, 168)
+                .bootstrap(List.of(YearFolder.class, FileItem.class));
+        yearFolderService = new YearFolderService(mongoTemplate);
+    }
+
+    @Test
+    void concurrentUploadsOnTheSameYearLoseNoFiles() throws Exception {
+        int threads = 8;
+        int filesPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < filesPerThread; i++) {
+                        // Tutti i thread creano in parallelo lo stesso anno e gli stessi mesi
+                        int month = (i % 12) + 1;
+                        yearFolderService.addFile(USER_ID, YEAR, month, file("t" + thread + "-" + i));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<YearFolder> folders = mongoTemplate.find(query(where("userId").is(USER_ID)), YearFolder.class);
+        assertThat(folders).hasSize(1);
+
+        List<MonthFolder> months = folders.get(0).getMonths();
+        assertThat(months).extracting(MonthFolder::getMonth)
+                .containsExactly(12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1);
+        assertThat(months.stream().mapToInt(MonthFolder::getFileCount).sum())
+                .isEqualTo(threads * filesPerThread);
+
+        List<FileItem> files = mongoTemplate.find(query(where("userId").is(USER_ID)), FileItem.class);
+        assertThat(files).hasSize(threads * filesPerThread);
+        for (MonthFolder month : months) {
+            assertThat(files.stream().filter(file -> month.getId().equals(file.getMonthFolderId())))
+                    .hasSize(month.getFileCount())
+                    .allSatisfy(file -> assertThat(file.getMonth()).isEqualTo(month.getMonth()));
+        }
+    }
+
+    @Test
+    void addFileToMonthAppendsToTheExistingMonth() {
+        yearFolderService.addFile(USER_ID, YEAR, 3, file("primo"));
+        String monthId = mongoTemplate.findOne(query(where("userId").is(USER_ID)), YearFolder.class)
+                .getMonths().get(0).getId();
+
+        yearFolderService.addFileToMonth(USER_ID, monthId, file("secondo"));
+
+        YearFolder folder = mongoTemplate.findOne(query(where("userId").is(USER_ID)), YearFolder.class);
+        assertThat(folder.getMonths().get(0).getFileCount()).isEqualTo(2);
+        assertThat(mongoTemplate.find(query(where("monthFolderId").is(monthId)), FileItem.class))
+                .extracting(FileItem::getName)
+                .containsExactlyInAnyOrder("primo", "secondo");
+    }
+
+    @Test
+    void addFileToMonthOfAnotherUserIsRejected() {
+        yearFolderService.addFile(USER_ID, YEAR, 3, file("primo"));
+        String monthId = mongoTemplate.findOne(query(where("userId").is(USER_ID)), YearFolder.class)
+                .getMonths().get(0).getId();
+
+        assertThatThrownBy(() -> yearFolderService.addFileToMonth("altro-utente", monthId, file("intruso")))
+                .isInstanceOf(ResourceNotFoundException.class);
+        assertThat(mongoTemplate.count(query(where("name").is("intruso")), FileItem.class)).isZero();
+    }
+
+    private static FileItem file(String name) {
+        return FileItem.builder()
+                .id(UUID.randomUUID().toString())
+                .name(name)
+                .type("pdf")
+                .size(1L)
+                .build();
+    }
+}
@@ -0,0 +1,69 @@
+package com.paypeek.backend.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FairTaskExecutorTest {
+
+    private final FairTaskExecutor executor = new FairTaskExecutor("test-", 1);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void keysAreServedInTurns() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+
+        // Il worker resta occupato finché la coda non è stata riempita
+        executor.execute("blocker", () -> {
+            await(release);
+            done.countDown();
+        });
+        for (String task : List.of("a1", "a2", "a3")) {
+            executor.execute("a", () -> { order.add(task); done.countDown(); });
+        }
+        executor.execute("b", () -> { order.add("b1"); done.countDown(); });
+
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly("a1", "b1", "a2", "a3");
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWorker() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("a", () -> { throw new IllegalStateException("errore"); });
+        executor.execute("a", done::countDown);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void tasksAfterShutdownAreRejected() {
+        executor.shutdown();
+
+        assertThatThrownBy(() -> executor.execute("a", () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.paypeek.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayslipPeriodTest {
+
+    @Test
+    void doublesFromJsonAreReadAsIntegers() {
+        Map<String, Object> data = periodo(2024.0, 1.0);
+
+        assertThat(PayslipPeriod.year(data)).contains(2024);
+        assertThat(PayslipPeriod.month(data)).contains(1);
+    }
+
+    @Test
+    void integersAndStringsAreNormalized() {
+        assertThat(PayslipPeriod.year(periodo(2023, 12))).contains(2023);
+        assertThat(PayslipPeriod.month(periodo(2023, 12))).contains(12);
+        assertThat(PayslipPeriod.year(periodo(" 2022 ", "03/"))).contains(2022);
+        assertThat(PayslipPeriod.month(periodo(" 2022 ", "03/"))).contains(3);
+        assertThat(PayslipPeriod.month(periodo("2022", "Settembre"))).contains(9);
+    }
+
+    @Test
+    void outOfRangeValuesAreDiscarded() {
+        assertThat(PayslipPeriod.year(periodo(20240.0, 13.0))).isEmpty();
+        assertThat(PayslipPeriod.month(periodo(20240.0, 13.0))).isEmpty();
+        assertThat(PayslipPeriod.month(periodo("2024", 0))).isEmpty();
+        assertThat(PayslipPeriod.year(Map.of())).isEmpty();
+    }
+
+    private static Map<String, Object> periodo(Object anno, Object mese) {
+        return Map.of("periodo", Map.of("anno", anno, "mese", mese));
+    }
+}